@@ -1,29 +1,32 @@
 package com.zeroclue.jmeter.protocol.amqp;
 
+import com.rabbitmq.client.AlreadyClosedException;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConsumerCancelledException;
 import com.rabbitmq.client.DeliverCallback;
 import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.GetResponse;
 import com.rabbitmq.client.ShutdownSignalException;
 
 import org.apache.groovy.util.Maps;
 import org.apache.jmeter.samplers.Entry;
 import org.apache.jmeter.samplers.Interruptible;
 import org.apache.jmeter.samplers.SampleResult;
-import org.apache.jmeter.testelement.TestStateListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStateListener {
+public class AMQPConsumer extends AMQPSampler implements Interruptible {
 
     private static final long serialVersionUID = 7480863561320459091L;
 
@@ -43,26 +46,100 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
     private static final String AUTO_ACK                = "AMQPConsumer.AutoAck";
     private static final String RECEIVE_TIMEOUT         = "AMQPConsumer.ReceiveTimeout";
     private static final String USE_TX                  = "AMQPConsumer.UseTx";
+    private static final String MEASURE_LATENCY         = "AMQPConsumer.MeasureLatency";
+    private static final String ACK_BATCH_SIZE          = "AMQPConsumer.AckBatchSize";
+    private static final String ACK_BATCH_TIMEOUT       = "AMQPConsumer.AckBatchTimeout";
+    private static final String PULL_MODE               = "AMQPConsumer.PullMode";
+    private static final String DRAIN_TIME              = "AMQPConsumer.DrainTime";
+    private static final String DRAIN_MAX_COUNT         = "AMQPConsumer.DrainMaxCount";
+    private static final String RESPONSE_MODE           = "AMQPConsumer.ResponseMode";
+    private static final String RESPONSE_MAX_BYTES      = "AMQPConsumer.ResponseMaxBytes";
+
+    public static final String RESPONSE_MODE_FULL       = "Full";
+    public static final String RESPONSE_MODE_TRUNCATED  = "Truncated";
+    public static final String RESPONSE_MODE_SIZE       = "Size Only";
+    public static final String RESPONSE_MODE_CHECKSUM   = "Checksum";
+
+    public static final String[] RESPONSE_MODES = new String[] {
+        RESPONSE_MODE_FULL,
+        RESPONSE_MODE_TRUNCATED,
+        RESPONSE_MODE_SIZE,
+        RESPONSE_MODE_CHECKSUM
+    };
 
     public static final String TIMESTAMP_PARAMETER      = "Timestamp";
     public static final String EXCHANGE_PARAMETER       = "Exchange";
     public static final String ROUTING_KEY_PARAMETER    = "Routing Key";
     public static final String DELIVERY_TAG_PARAMETER   = "Delivery Tag";
     public static final String APP_ID_PARAMETER         = "Application ID";
+    public static final String LATENCY_AVG_PARAMETER    = "E2E Latency Avg (us)";
+    public static final String LATENCY_MAX_PARAMETER    = "E2E Latency Max (us)";
+    public static final String LATENCY_COUNT_PARAMETER  = "E2E Latency Samples";
+
+    public static final String BUFFERED_PARAMETER       = "Buffered Deliveries";
+    public static final String BUFFER_FULL_PARAMETER    = "Buffer Full Time (ms)";
+    public static final String BUFFER_WAIT_PARAMETER    = "Buffer Wait Time (ms)";
+    public static final String DROPPED_PARAMETER        = "Dropped Deliveries";
+
+    public static final String FETCH_COUNT_PARAMETER    = "Fetches";
+    public static final String FETCH_EMPTY_PARAMETER    = "Empty Fetches";
+    public static final String FETCH_RTT_PARAMETER      = "Fetch RTT Avg (us)";
+    public static final String FETCH_TIME_PARAMETER     = "Fetch Time (us)";
+    public static final String BACKOFF_TIME_PARAMETER   = "Backoff Time (us)";
+    public static final String PROCESSING_TIME_PARAMETER = "Processing Time (us)";
+
+    public static final String BODY_SIZE_PARAMETER      = "Body Size";
+    public static final String BODY_CHECKSUM_PARAMETER  = "Body Checksum";
+
+    public static final String DRAINED_COUNT_PARAMETER  = "Drained Messages";
+    public static final String DRAINED_BYTES_PARAMETER  = "Drained Bytes";
+    public static final String DRAIN_RATE_PARAMETER     = "Drain Rate (msg/s)";
+
+    public static final String LATENCY_LABEL_SUFFIX     = " E2E Latency";
 
     public static final boolean DEFAULT_PURGE_QUEUE = false;
     public static final boolean DEFAULT_AUTO_ACK = true;
     public static final boolean DEFAULT_READ_RESPONSE = true;
     public static final boolean DEFAULT_USE_TX = false;
+    public static final boolean DEFAULT_MEASURE_LATENCY = false;
+    public static final boolean DEFAULT_PULL_MODE = false;
+    public static final String DEFAULT_RESPONSE_MODE = RESPONSE_MODE_FULL;
+    public static final int DEFAULT_RESPONSE_MAX_BYTES = 1024;
+    public static final String DEFAULT_RESPONSE_MAX_BYTES_STRING = Integer.toString(DEFAULT_RESPONSE_MAX_BYTES);
     private static final int DEFAULT_PREFETCH_COUNT = 0;    // unlimited
+    // delivery buffer capacity with unlimited prefetch, the client blocks beyond it
+    private static final int DEFAULT_BUFFER_CAPACITY = 1024;
     public static final String DEFAULT_PREFETCH_COUNT_STRING = Integer.toString(DEFAULT_PREFETCH_COUNT);
+    public static final int DEFAULT_ACK_BATCH_SIZE = 1;     // ack every message
+    public static final String DEFAULT_ACK_BATCH_SIZE_STRING = Integer.toString(DEFAULT_ACK_BATCH_SIZE);
+    public static final int DEFAULT_ACK_BATCH_TIMEOUT = 0;  // no time limit
+    public static final String DEFAULT_ACK_BATCH_TIMEOUT_STRING = Integer.toString(DEFAULT_ACK_BATCH_TIMEOUT);
+    public static final int DEFAULT_DRAIN_TIME = 0;         // drain mode off
+    public static final String DEFAULT_DRAIN_TIME_STRING = Integer.toString(DEFAULT_DRAIN_TIME);
+    public static final int DEFAULT_DRAIN_MAX_COUNT = 0;    // unlimited
+    public static final String DEFAULT_DRAIN_MAX_COUNT_STRING = Integer.toString(DEFAULT_DRAIN_MAX_COUNT);
     public static final String DEFAULT_RESPONSE_CODE = "500";
     public static final String DEFAULT_RECEIVE_TIMEOUT = "";
 
+    // pull mode backs off exponentially between empty fetches, within these bounds
+    private static final long MIN_PULL_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_PULL_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(128);
+
     private transient Channel channel;
     private transient DeliverCallback consumer;
-    private transient BlockingQueue<Delivery> response;
+    private transient DeliveryBuffer response;
+    private final transient AtomicLong droppedDeliveries = new AtomicLong();    // auto acked, but never buffered
     private transient String consumerTag;
+    private transient ConsumerSettings settings;
+    private transient Channel configuredChannel;
+    private transient AckBatcher acks;
+
+    // pull mode state, the fetch stats are reset for every sample
+    private transient long pullBackoffNanos;
+    private transient long fetchCount;
+    private transient long emptyFetchCount;
+    private transient long fetchNanos;
+    private transient long backoffNanos;
 
     public AMQPConsumer() {
         super();
@@ -81,23 +158,19 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
 
         trace("AMQPConsumer.sample()");
 
+        applyWarmUpResult(result);
+        applyRecoveryResults(result);
+        resolveSettings();
+
         try {
             initChannel();
+            applyConnectTime(result);
 
             if (purgeQueue()) {
                 doPurgeQueue();
             }
 
-            // only do this once per thread, otherwise it slows down the consumption by appx 50%
-            if (consumer == null) {
-                log.info("Creating consumer");
-                response = new LinkedBlockingQueue<>(1);
-                consumer = (consumerTag, delivery) -> response.offer(delivery);
-            }
-            if (consumerTag == null) {
-                log.info("Starting basic consumer");
-                consumerTag = channel.basicConsume(getQueue(), autoAck(), consumer, consumerTag  -> { });
-            }
+            startConsumer();
         } catch (Exception ex) {
             log.error("Failed to initialize channel", ex);
             result.setResponseMessage(ex.toString());
@@ -108,68 +181,188 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
          * Perform the sampling
          */
 
-        // aggregate samples
-        int loop = getIterationsAsInt();
+        // aggregate samples, or in drain mode as many as possible within the drain time
+        boolean drain = settings.getDrainTime() > 0;
+        int loop = settings.getIterations();
+
+        if (drain) {
+            loop = settings.getDrainMaxCount() > 0 ? settings.getDrainMaxCount() : Integer.MAX_VALUE;
+        }
+
+        long receiveTimeout = TimeUnit.MILLISECONDS.toNanos(settings.getReceiveTimeout());
+        boolean readResponse = settings.isReadResponse();
+        boolean autoAck = settings.isAutoAck();
+        boolean measureLatency = settings.isMeasureLatency();
+        boolean latencyPercentiles = settings.isLatencyPercentiles();
+        long latencyCount = 0;
+        long latencySum = 0;
+        long latencyMax = 0;
+        long firstSendTime = -1;
+        long producerBlocked = response != null ? response.getProducerBlockedNanos() : 0;
+        long consumerBlocked = response != null ? response.getConsumerBlockedNanos() : 0;
+        fetchCount = 0;
+        emptyFetchCount = 0;
+        fetchNanos = 0;
+        backoffNanos = 0;
+        int frameMax = getFrameMax();
+        long bodyBytes = 0;
+        long headerBytes = 0;
+        acks.getSentAndReset();
+        long sampleStart = System.nanoTime();
+        long drainDeadline = sampleStart + TimeUnit.MILLISECONDS.toNanos(settings.getDrainTime());
+        int drainedCount = 0;
         result.sampleStart();                      // start timing
         Delivery delivery = null;
 
         try {
             for (int idx = 0; idx < loop; idx++) {
-                delivery = response.poll(getReceiveTimeoutAsInt(), TimeUnit.MILLISECONDS);
+                long pollStart = System.nanoTime();
+                long deadline = pollStart + receiveTimeout;
+
+                if (drain) {
+                    if (drainDeadline - pollStart <= 0) {
+                        break;
+                    }
+
+                    deadline = Math.min(deadline, drainDeadline);
+                }
+
+                Delivery next = nextDelivery(deadline);
+                long pollTime = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - pollStart);
+
+                if (next == null) {
+                    // the queue is idle, do not hold back the acks of the messages consumed so far
+                    flushAcks();
+
+                    // a drained queue or an elapsed drain time completes the sample
+                    if (drain) {
+                        break;
+                    }
 
-                if (delivery == null) {
                     result.setResponseMessage("Timed out");
                     return result;
                 }
 
-                /*
-                 * Set up the sample result details
-                 */
-                if (getReadResponseAsBoolean()) {
-                    String responseStr = new String(delivery.getBody());
-                    result.setSamplerData(responseStr);
-                    result.setResponseData(responseStr, null);
-                } else {
-                    result.setSamplerData("Read response is false.");
+                delivery = next;
+                drainedCount++;
+
+                // the latency is the time to the first message
+                if (idx == 0) {
+                    result.latencyEnd();
                 }
 
-                if (!autoAck()) {
-                    channel.basicAck(delivery.getEnvelope().getDeliveryTag(), false);
+                int bodySize = delivery.getBody().length;
+                long contentHeaderSize = FrameSizes.contentHeader(delivery.getProperties());
+                bodyBytes += bodySize;
+                headerBytes += settings.isPullMode()
+                    ? FrameSizes.getOk(delivery.getEnvelope(), contentHeaderSize, bodySize, frameMax)
+                    : FrameSizes.deliver(consumerTag, delivery.getEnvelope(), contentHeaderSize, bodySize, frameMax);
+
+                // the latency of a message is its end-to-end latency if measured, its wait time otherwise
+                long sendTime = measureLatency ? getSendTime(delivery) : -1;
+
+                if (sendTime < 0 && latencyPercentiles) {
+                    recordLatency(pollTime);
+                }
+
+                if (sendTime >= 0) {
+                    long latency = Math.max(0, MessageTimestamps.currentTimeMicros() - sendTime);
+                    latencyCount++;
+                    latencySum += latency;
+                    latencyMax = Math.max(latencyMax, latency);
+
+                    if (firstSendTime < 0) {
+                        firstSendTime = sendTime;
+                    }
+
+                    if (latencyPercentiles) {
+                        recordLatency(latency);
+                    }
+                }
+
+                if (!autoAck) {
+                    acks.ack(delivery.getEnvelope().getDeliveryTag());
                 }
             }
 
-            // commit the sample
-            if (getUseTx()) {
+            // commit the sample, including the acks of its messages
+            if (settings.isUseTx()) {
+                acks.flush();
                 channel.txCommit();
             }
 
             /*
              * Set up the sample result details
              */
-            result.setResponseMessage("OK");
+            long sampleNanos = System.nanoTime() - sampleStart;
+            result.setResponseMessage(drain ? "Drained " + drainedCount + " message(s)" : "OK");
             result.setDataType(SampleResult.TEXT);
-            result.setResponseHeaders(delivery != null ? formatHeaders(delivery) : null);
+            String headers = delivery != null ? formatHeaders(delivery) : "";
+
+            if (delivery != null) {
+                headers += BODY_SIZE_PARAMETER + ": " + delivery.getBody().length + "\n";
+            }
+
+            // only the last message of the sample is recorded
+            if (!readResponse) {
+                result.setSamplerData("Read response is false.");
+            } else if (delivery != null) {
+                headers += setResponseBody(result, delivery.getBody());
+            }
+
+            if (drain) {
+                headers += formatDrainStats(drainedCount, bodyBytes, sampleNanos);
+            }
+
+            if (settings.isPullMode()) {
+                headers += formatFetchStats(sampleNanos);
+            } else {
+                headers += BUFFERED_PARAMETER + ": " + response.size() + "\n"
+                    + BUFFER_FULL_PARAMETER + ": "
+                    + TimeUnit.NANOSECONDS.toMillis(response.getProducerBlockedNanos() - producerBlocked) + "\n"
+                    + BUFFER_WAIT_PARAMETER + ": "
+                    + TimeUnit.NANOSECONDS.toMillis(response.getConsumerBlockedNanos() - consumerBlocked) + "\n"
+                    + DROPPED_PARAMETER + ": " + droppedDeliveries.getAndSet(0) + "\n";
+            }
+
+            result.setResponseHeaders(headers);
+
+            if (latencyCount > 0) {
+                addLatencyResult(result, firstSendTime, latencySum / latencyCount, latencyMax, latencyCount);
+            }
+
+            applyLatencyPercentiles(result);
+            applyNodeConnections(result);
 
             result.setResponseCodeOK();
             result.setSuccessful(true);
         } catch(InterruptedException ie) {
             Thread.currentThread().interrupt();     // re-interrupt the current thread
-            response = null;
-            consumer = null;
+            cancelConsumer();
+            discardConsumer();
             consumerTag = null;
             log.warn("Interrupted while attempting to consume", ie);
             result.setResponseCode(EXCEPTION_TO_RESPONSE_CODE.get(ie.getClass()));
             result.setResponseMessage(ie.getMessage());
         } catch (ShutdownSignalException | ConsumerCancelledException | IOException e) {
-            response = null;
-            consumer = null;
-            consumerTag = null;
+            // a recovering connection registers the consumer again by itself
+            if (!RecoveryMonitor.isRecovering(channel.getConnection())) {
+                cancelConsumer();
+                discardConsumer();
+                consumerTag = null;
+            }
+
             log.warn("AMQP consumer failed to consume", e);
             result.setResponseCode(EXCEPTION_TO_RESPONSE_CODE.get(e.getClass()));
             result.setResponseMessage(e.getMessage());
             interrupt();
         } finally {
             result.sampleEnd();         // end timing
+            result.setBodySize(bodyBytes);
+            result.setHeadersSize((int) Math.min(Integer.MAX_VALUE,
+                headerBytes + emptyFetchCount * FrameSizes.BASIC_GET_EMPTY));
+            result.setSentBytes(fetchCount * FrameSizes.basicGet(settings.getQueue())
+                + (long) acks.getSentAndReset() * FrameSizes.BASIC_ACK);
         }
 
         trace("AMQPConsumer.sample ended");
@@ -177,6 +370,281 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
         return result;
     }
 
+    /**
+     * Start the push consumer of the thread, unless it is already running.
+     * Pull mode fetches messages on demand, without a consumer.
+     */
+    private void startConsumer() throws IOException {
+        if (settings.isPullMode()) {
+            return;
+        }
+
+        // only do this once per thread, otherwise it slows down the consumption by appx 50%
+        if (consumer == null) {
+            int prefetch = getEffectivePrefetchCount();
+            DeliveryBuffer buffer = new DeliveryBuffer(prefetch > 0 ? prefetch : DEFAULT_BUFFER_CAPACITY);
+            log.info("Creating consumer with a buffer of {} deliveries", buffer.capacity());
+            response = buffer;
+            consumer = (consumerTag, delivery) -> {
+                try {
+                    if (!buffer.put(delivery)) {
+                        dropDelivery(delivery, "Consumer discarded");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropDelivery(delivery, "Interrupted");
+                }
+            };
+        }
+
+        if (consumerTag == null) {
+            log.info("Starting basic consumer");
+            consumerTag = channel.basicConsume(settings.getQueue(), settings.isAutoAck(), consumer, consumerTag  -> { });
+        }
+    }
+
+    /**
+     * Give back a delivery which could not be buffered: requeue it when acknowledged manually,
+     * otherwise it is lost and counted as dropped in the next sample.
+     */
+    private void dropDelivery(Delivery delivery, String reason) {
+        long deliveryTag = delivery.getEnvelope().getDeliveryTag();
+
+        if (!settings.isAutoAck()) {
+            try {
+                channel.basicNack(deliveryTag, false, true);
+                log.warn("{} while buffering delivery {}, requeued", reason, deliveryTag);
+                return;
+            } catch (IOException | AlreadyClosedException e) {
+                // the broker requeues the unacknowledged deliveries of a closed channel
+                log.warn("{} while buffering delivery {}, failed to requeue", reason, deliveryTag, e);
+                return;
+            }
+        }
+
+        droppedDeliveries.incrementAndGet();
+        log.warn("{} while buffering auto acked delivery {}, dropped", reason, deliveryTag);
+    }
+
+    /**
+     * Open the channel and start the consumer, so the first sample only waits for messages.
+     */
+    @Override
+    protected void warmUp() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+        resolveSettings();
+        super.warmUp();
+
+        if (purgeQueue()) {
+            doPurgeQueue();
+        }
+
+        startConsumer();
+    }
+
+    /**
+     * Take the next delivery, acknowledging the pending batch whenever its timeout expires while waiting.
+     *
+     * @param deadline the {@link System#nanoTime()} after which to give up
+     * @return the next delivery, or null if none has been received until the deadline
+     */
+    private Delivery nextDelivery(long deadline) throws InterruptedException, IOException {
+        if (settings.isPullMode()) {
+            return fetchDelivery(deadline);
+        }
+
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            Delivery delivery = response.poll(Math.min(remaining, acks.getNanosUntilDue()), TimeUnit.NANOSECONDS);
+
+            if (delivery != null) {
+                return delivery;
+            }
+
+            acks.flushIfDue();
+
+            if (deadline - System.nanoTime() <= 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Fetch the next message with {@code basic.get}, backing off exponentially while the queue is empty.
+     *
+     * @param deadline the {@link System#nanoTime()} after which to give up
+     * @return the next delivery, or null if the queue stayed empty until the deadline
+     */
+    private Delivery fetchDelivery(long deadline) throws InterruptedException, IOException {
+        while (true) {
+            long fetchStart = System.nanoTime();
+            GetResponse message = channel.basicGet(settings.getQueue(), settings.isAutoAck());
+            long now = System.nanoTime();
+            fetchNanos += now - fetchStart;
+            fetchCount++;
+
+            if (message != null) {
+                pullBackoffNanos = 0;
+                return new Delivery(message.getEnvelope(), message.getProps(), message.getBody());
+            }
+
+            emptyFetchCount++;
+            acks.flushIfDue();
+
+            long remaining = deadline - now;
+
+            if (remaining <= 0) {
+                return null;
+            }
+
+            pullBackoffNanos = pullBackoffNanos == 0
+                ? MIN_PULL_BACKOFF_NANOS
+                : Math.min(pullBackoffNanos * 2, MAX_PULL_BACKOFF_NANOS);
+            long backoff = Math.min(Math.min(pullBackoffNanos, remaining), acks.getNanosUntilDue());
+
+            TimeUnit.NANOSECONDS.sleep(backoff);
+            backoffNanos += backoff;
+        }
+    }
+
+    /**
+     * Record the body of a message in the sample result according to the response mode.
+     * The raw bytes are recorded as is, without decoding and copying them into a string.
+     *
+     * @return the response headers describing the body, besides its size
+     */
+    private String setResponseBody(SampleResult result, byte[] body) {
+        String headers = "";
+        result.setDataEncoding(StandardCharsets.UTF_8.name());
+
+        switch (settings.getResponseMode()) {
+            case RESPONSE_MODE_TRUNCATED:
+                int maxBytes = settings.getResponseMaxBytes();
+                result.setResponseData(body.length > maxBytes ? Arrays.copyOf(body, maxBytes) : body);
+                break;
+            case RESPONSE_MODE_SIZE:
+                break;
+            case RESPONSE_MODE_CHECKSUM:
+                String checksum = BodyChecksum.ALGORITHM + " " + BodyChecksum.of(body);
+                result.setResponseData(checksum.getBytes(StandardCharsets.UTF_8));
+                headers += BODY_CHECKSUM_PARAMETER + ": " + checksum + "\n";
+                break;
+            default:
+                result.setResponseData(body);
+                break;
+        }
+
+        return headers;
+    }
+
+    private static String formatDrainStats(int count, long bytes, long sampleNanos) {
+        double rate = sampleNanos > 0 ? count * 1e9 / sampleNanos : 0;
+
+        return DRAINED_COUNT_PARAMETER + ": " + count + "\n"
+            + DRAINED_BYTES_PARAMETER + ": " + bytes + "\n"
+            + DRAIN_RATE_PARAMETER + ": " + String.format(Locale.ROOT, "%.1f", rate) + "\n";
+    }
+
+    /**
+     * Format the pull mode stats of a sample, the processing time being the sample time
+     * not spent fetching messages or backing off.
+     */
+    private String formatFetchStats(long sampleNanos) {
+        return FETCH_COUNT_PARAMETER + ": " + fetchCount + "\n"
+            + FETCH_EMPTY_PARAMETER + ": " + emptyFetchCount + "\n"
+            + FETCH_RTT_PARAMETER + ": " + (fetchCount > 0 ? TimeUnit.NANOSECONDS.toMicros(fetchNanos / fetchCount) : 0) + "\n"
+            + FETCH_TIME_PARAMETER + ": " + TimeUnit.NANOSECONDS.toMicros(fetchNanos) + "\n"
+            + BACKOFF_TIME_PARAMETER + ": " + TimeUnit.NANOSECONDS.toMicros(backoffNanos) + "\n"
+            + PROCESSING_TIME_PARAMETER + ": "
+            + TimeUnit.NANOSECONDS.toMicros(Math.max(0, sampleNanos - fetchNanos - backoffNanos)) + "\n";
+    }
+
+    /**
+     * Acknowledge the pending batch of deliveries, if any, as long as the channel is still open.
+     */
+    private void flushAcks() {
+        if (acks != null && acks.getPending() > 0 && channel != null && channel.isOpen()) {
+            int pending = acks.getPending();
+
+            try {
+                acks.flush();
+            } catch (IOException | ShutdownSignalException e) {
+                log.warn("Failed to acknowledge {} pending deliveries", pending, e);
+            }
+        }
+    }
+
+    /**
+     * Cancel the consumer on the broker before it is forgotten, so it stops receiving deliveries.
+     */
+    private void cancelConsumer() {
+        if (consumerTag == null || channel == null || !channel.isOpen()) {
+            return;
+        }
+
+        try {
+            channel.basicCancel(consumerTag);
+        } catch (IOException | AlreadyClosedException e) {
+            log.debug("Couldn't cancel the consumer {}", consumerTag, e);
+        }
+    }
+
+    /**
+     * Forget the consumer, so that a new one is started by the next sample.
+     */
+    private void discardConsumer() {
+        flushAcks();
+
+        if (response != null) {
+            response.close();
+        }
+
+        response = null;
+        consumer = null;
+    }
+
+    private static long getSendTime(Delivery delivery) {
+        Map<String, Object> headers = delivery.getProperties().getHeaders();
+
+        return headers != null ? MessageTimestamps.sendTime(headers.get(MessageTimestamps.SEND_TIME_HEADER)) : -1;
+    }
+
+    /**
+     * Report the end-to-end latency of the stamped messages consumed by the sample, as response headers
+     * and as a sub-result which elapsed time is the average latency, so that it shows up in the listeners.
+     */
+    private void addLatencyResult(SampleResult result, long firstSendTime, long avgLatency, long maxLatency, long count) {
+        result.setResponseHeaders(result.getResponseHeaders()
+            + LATENCY_AVG_PARAMETER + ": " + avgLatency + "\n"
+            + LATENCY_MAX_PARAMETER + ": " + maxLatency + "\n"
+            + LATENCY_COUNT_PARAMETER + ": " + count + "\n");
+
+        SampleResult latencyResult = new SampleResult();
+        latencyResult.setSampleLabel(result.getSampleLabel() + LATENCY_LABEL_SUFFIX);
+        latencyResult.setStampAndTime(TimeUnit.MICROSECONDS.toMillis(firstSendTime), TimeUnit.MICROSECONDS.toMillis(avgLatency));
+        latencyResult.setLatency(TimeUnit.MICROSECONDS.toMillis(avgLatency));
+        latencyResult.setResponseCodeOK();
+        latencyResult.setResponseMessage("Max " + maxLatency + " us over " + count + " message(s)");
+        latencyResult.setSuccessful(true);
+
+        result.addRawSubResult(latencyResult);
+    }
+
+    /**
+     * Resolve the settings snapshot for the current sample,
+     * the snapshot is only rebuilt if any of its properties has a dynamic value.
+     *
+     * @return the settings snapshot
+     */
+    protected ConsumerSettings resolveSettings() {
+        if (settings == null || settings.isDynamic()) {
+            settings = new ConsumerSettings(this, hasDynamicProperty(QUEUE, ITERATIONS, RECEIVE_TIMEOUT,
+                    READ_RESPONSE, AUTO_ACK, USE_TX, MEASURE_LATENCY, LATENCY_PERCENTILES, PULL_MODE,
+                    DRAIN_TIME, DRAIN_MAX_COUNT, RESPONSE_MODE, RESPONSE_MAX_BYTES));
+        }
+
+        return settings;
+    }
+
     @Override
     protected Channel getChannel() {
         return channel;
@@ -262,6 +730,19 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
         return getPropertyAsInt(PREFETCH_COUNT);
     }
 
+    /**
+     * The delivery buffer blocks the dispatch thread when full. With a shared dispatch pool, an unlimited
+     * prefetch count is bounded by the default buffer capacity, so the broker never sends more unacknowledged
+     * deliveries than the buffer holds and the shared threads are never blocked.
+     *
+     * @return the prefetch count set on the channel, 0 for unlimited
+     */
+    private int getEffectivePrefetchCount() {
+        int prefetch = getPrefetchCountAsInt();
+
+        return prefetch <= 0 && isDispatchPoolShared() ? DEFAULT_BUFFER_CAPACITY : prefetch;
+    }
+
     public boolean getUseTx() {
         return getPropertyAsBoolean(USE_TX, DEFAULT_USE_TX);
     }
@@ -270,6 +751,123 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
         setProperty(USE_TX, tx);
     }
 
+    /**
+     * @return whether the end-to-end latency of messages stamped by the publisher is measured
+     */
+    public boolean getMeasureLatency() {
+        return getPropertyAsBoolean(MEASURE_LATENCY, DEFAULT_MEASURE_LATENCY);
+    }
+
+    public void setMeasureLatency(Boolean measure) {
+        setProperty(MEASURE_LATENCY, measure);
+    }
+
+    /**
+     * @return whether messages are fetched with basic.get instead of being pushed to a consumer
+     */
+    public boolean getPullMode() {
+        return getPropertyAsBoolean(PULL_MODE, DEFAULT_PULL_MODE);
+    }
+
+    public void setPullMode(Boolean pull) {
+        setProperty(PULL_MODE, pull);
+    }
+
+    public String getDrainTime() {
+        return getPropertyAsString(DRAIN_TIME, DEFAULT_DRAIN_TIME_STRING);
+    }
+
+    public void setDrainTime(String drainTime) {
+        setProperty(DRAIN_TIME, drainTime);
+    }
+
+    /**
+     * Time budget of a sample in drain mode, which consumes as many messages as possible
+     * until the budget is spent, the max count is reached or the queue is empty.
+     *
+     * @return the drain time in milliseconds, 0 if drain mode is off
+     */
+    public int getDrainTimeAsInt() {
+        return Math.max(0, getPropertyAsInt(DRAIN_TIME, DEFAULT_DRAIN_TIME));
+    }
+
+    public String getDrainMaxCount() {
+        return getPropertyAsString(DRAIN_MAX_COUNT, DEFAULT_DRAIN_MAX_COUNT_STRING);
+    }
+
+    public void setDrainMaxCount(String maxCount) {
+        setProperty(DRAIN_MAX_COUNT, maxCount);
+    }
+
+    /**
+     * @return the max number of messages consumed by a sample in drain mode, 0 for no limit
+     */
+    public int getDrainMaxCountAsInt() {
+        return Math.max(0, getPropertyAsInt(DRAIN_MAX_COUNT, DEFAULT_DRAIN_MAX_COUNT));
+    }
+
+    public String getAckBatchSize() {
+        return getPropertyAsString(ACK_BATCH_SIZE, DEFAULT_ACK_BATCH_SIZE_STRING);
+    }
+
+    public void setAckBatchSize(String batchSize) {
+        setProperty(ACK_BATCH_SIZE, batchSize);
+    }
+
+    /**
+     * Number of messages acknowledged at once when auto ack is off,
+     * bounded by the prefetch count so the broker never stalls waiting for acks.
+     *
+     * @return the number of messages acknowledged at once
+     */
+    public int getAckBatchSizeAsInt() {
+        int batchSize = Math.max(1, getPropertyAsInt(ACK_BATCH_SIZE, DEFAULT_ACK_BATCH_SIZE));
+        int prefetch = getEffectivePrefetchCount();
+
+        return prefetch > 0 ? Math.min(batchSize, prefetch) : batchSize;
+    }
+
+    public String getAckBatchTimeout() {
+        return getPropertyAsString(ACK_BATCH_TIMEOUT, DEFAULT_ACK_BATCH_TIMEOUT_STRING);
+    }
+
+    public void setAckBatchTimeout(String timeout) {
+        setProperty(ACK_BATCH_TIMEOUT, timeout);
+    }
+
+    /**
+     * @return the max time a message waits for its acknowledgement in milliseconds, 0 for no limit
+     */
+    public int getAckBatchTimeoutAsInt() {
+        return Math.max(0, getPropertyAsInt(ACK_BATCH_TIMEOUT, DEFAULT_ACK_BATCH_TIMEOUT));
+    }
+
+    /**
+     * @return how the body of a consumed message is recorded, one of {@link #RESPONSE_MODES}
+     */
+    public String getResponseMode() {
+        return getPropertyAsString(RESPONSE_MODE, DEFAULT_RESPONSE_MODE);
+    }
+
+    public void setResponseMode(String mode) {
+        setProperty(RESPONSE_MODE, mode);
+    }
+
+    public String getResponseMaxBytes() {
+        return getPropertyAsString(RESPONSE_MAX_BYTES, DEFAULT_RESPONSE_MAX_BYTES_STRING);
+    }
+
+    public void setResponseMaxBytes(String maxBytes) {
+        setProperty(RESPONSE_MAX_BYTES, maxBytes);
+    }
+
+    /**
+     * @return the max number of body bytes recorded in truncated response mode
+     */
+    public int getResponseMaxBytesAsInt() {
+        return Math.max(0, getPropertyAsInt(RESPONSE_MAX_BYTES, DEFAULT_RESPONSE_MAX_BYTES));
+    }
+
     /**
      * Option if the sampler should read the response.
      *
@@ -303,31 +901,10 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
         return true;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void testEnded() {
-        // Do nothing
-    }
-
-    @Override
-    public void testEnded(String arg0) {
-        // Do nothing
-    }
-
-    @Override
-    public void testStarted() {
-        // Do nothing
-    }
-
-    @Override
-    public void testStarted(String arg0) {
-        // Do nothing
-    }
-
     @Override
     public void cleanup() {
+        flushAcks();
+
         try {
             if (consumerTag != null) {
                 channel.basicCancel(consumerTag);
@@ -336,6 +913,10 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
             log.error("Couldn't safely cancel the sample {}", consumerTag, e);
         }
 
+        if (response != null) {
+            response.close();
+        }
+
         super.cleanup();
     }
 
@@ -352,10 +933,23 @@ public class AMQPConsumer extends AMQPSampler implements Interruptible, TestStat
     @Override
     protected boolean initChannel() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
         boolean ret = super.initChannel();
-        channel.basicQos(getPrefetchCountAsInt());
 
-        if (getUseTx()) {
-            channel.txSelect();
+        // QoS and transactions are only set up once, whenever a new channel was opened
+        if (channel != configuredChannel) {
+            channel.basicQos(getEffectivePrefetchCount());
+
+            if (settings.isAutoAck() && !settings.isPullMode() && isDispatchPoolShared()) {
+                log.warn("Auto ack is not bounded by the prefetch count, a full delivery buffer blocks one of the "
+                        + "{} shared dispatch threads and holds up the consumers of other connections",
+                        getDispatchThreadsAsInt());
+            }
+
+            if (settings.isUseTx()) {
+                channel.txSelect();
+            }
+
+            acks = new AckBatcher(channel, getAckBatchSizeAsInt(), getAckBatchTimeoutAsInt());
+            configuredChannel = channel;
         }
 
         return ret;
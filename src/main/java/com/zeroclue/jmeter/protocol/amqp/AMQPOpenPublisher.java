@@ -0,0 +1,343 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.HdrHistogram.Histogram;
+import org.apache.jmeter.samplers.Entry;
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Open model publisher: publishes at the arrival rate of its rate profile from a pool of worker channels,
+ * independently of the number of JMeter threads.
+ *
+ * <p>The first sample starts the workers, which keep publishing until the thread finishes.
+ * Every sample then waits for the end of a reporting interval and reports the messages published
+ * during the interval as one aggregated result, with the number of messages as its sample count.
+ * A single JMeter thread can thus drive the broker at a rate which would otherwise take hundreds of threads.
+ * The threads of the element share the schedule: together they publish at the rate of the profile,
+ * each with its own workers, and each reports the messages published by its own workers.
+ *
+ * <p>The message settings are those of {@link AMQPPublisher}. The message properties are rendered again
+ * by every sample, the other settings are resolved once, when the workers are started.
+ * Transactions are not supported, the number of samples to aggregate is not used.
+ */
+public class AMQPOpenPublisher extends AMQPPublisher {
+
+    private static final long serialVersionUID = 7291854103342377165L;
+
+    private static final Logger log = LoggerFactory.getLogger(AMQPOpenPublisher.class);
+
+    //++ These are JMX names, and must not be changed
+    private static final String WORKERS         = "AMQPOpenPublisher.Workers";
+    private static final String REPORT_INTERVAL = "AMQPOpenPublisher.ReportInterval";
+
+    public static final int DEFAULT_WORKERS = 4;
+    public static final String DEFAULT_WORKERS_STRING = Integer.toString(DEFAULT_WORKERS);
+    public static final int DEFAULT_REPORT_INTERVAL = 1000;
+    public static final String DEFAULT_REPORT_INTERVAL_STRING = Integer.toString(DEFAULT_REPORT_INTERVAL);
+
+    public static final String PUBLISHED_PARAMETER          = "Published Messages";
+    public static final String FAILED_PARAMETER             = "Failed Messages";
+    public static final String SCHEDULE_LAG_P99_PARAMETER   = "Schedule Lag p99 (us)";
+    public static final String SCHEDULE_LAG_MAX_PARAMETER   = "Schedule Lag max (us)";
+
+    private transient OpenModelEngine engine;
+    private transient long reportElapsedNanos;      // end of the previous reporting interval, on the engine clock
+    private transient ReturnTracker workerReturns;
+    private transient String payloadDescription;
+    private final transient ConcurrentMap<Channel, ConfirmTracker> workerConfirms = new ConcurrentHashMap<>();
+
+    public AMQPOpenPublisher() {
+        super();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SampleResult sample(Entry e) {
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName());
+        result.setSuccessful(false);
+        result.setResponseCode(DEFAULT_RESPONSE_CODE);
+
+        applyWarmUpResult(result);
+        applyRecoveryResults(result);
+
+        OpenModelEngine openEngine;
+
+        try {
+            resolveSettings();
+            initChannel();
+            applyConnectTime(result);
+            openEngine = startEngine();
+        } catch (Exception ex) {
+            log.error("Failed to start publishing : ", ex);
+            result.setResponseMessage(ex.toString());
+            return result;
+        }
+
+        result.setSampleLabel(getTitle());
+        openEngine.setProperties(getProperties());
+
+        // wait for the end of the reporting interval, intervals follow each other without gaps
+        long from = reportElapsedNanos;
+        long to = from + TimeUnit.MILLISECONDS.toNanos(getReportIntervalAsInt());
+        long startTime = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(openEngine.getElapsedNanos() - from);
+
+        try {
+            long wait;
+
+            while ((wait = to - openEngine.getElapsedNanos()) > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();     // re-interrupt the current thread
+            log.warn("Interrupted while waiting for the end of the reporting interval", ex);
+        }
+
+        to = openEngine.getElapsedNanos();
+        reportElapsedNanos = to;
+
+        applyInterval(result, openEngine, startTime, from, to);
+
+        return result;
+    }
+
+    /**
+     * Report the messages published by the workers during the interval, as one aggregated result.
+     */
+    private void applyInterval(SampleResult result, OpenModelEngine openEngine, long startTime, long from, long to) {
+        long published = openEngine.getPublishedAndReset();
+        long failed = openEngine.getFailedAndReset();
+        String error = openEngine.getLastErrorAndReset();
+        Histogram lags = openEngine.getLagsAndReset();
+        Histogram latencies = openEngine.getLatenciesAndReset();
+        double seconds = (to - from) / 1e9;
+
+        result.setStampAndTime(startTime, TimeUnit.NANOSECONDS.toMillis(to - from));
+        result.setSentBytes(openEngine.getSentBytesAndReset());
+
+        if (published + failed > 0) {
+            result.setSampleCount((int) Math.min(Integer.MAX_VALUE, published + failed));
+            result.setErrorCount((int) Math.min(Integer.MAX_VALUE, failed));
+        }
+
+        if (latencies.getTotalCount() > 0) {
+            result.setLatency(TimeUnit.MICROSECONDS.toMillis((long) latencies.getMean()));
+        }
+
+        result.setSamplerData(payloadDescription);
+        result.setResponseData("OK", null);
+        result.setDataType(SampleResult.TEXT);
+
+        result.setResponseHeaders(PUBLISHED_PARAMETER + ": " + published + "\n"
+                + FAILED_PARAMETER + ": " + failed + "\n"
+                + TARGET_RATE_PARAMETER + ": "
+                + String.format(Locale.ROOT, "%.1f", openEngine.getTargetRate(from, to)) + "\n"
+                + ACHIEVED_RATE_PARAMETER + ": "
+                + String.format(Locale.ROOT, "%.1f", seconds > 0 ? published / seconds : 0) + "\n"
+                + SCHEDULE_LAG_P99_PARAMETER + ": " + lags.getValueAtPercentile(99.0) + "\n"
+                + SCHEDULE_LAG_MAX_PARAMETER + ": " + lags.getMaxValue() + "\n");
+
+        if (failed == 0) {
+            result.setResponseCodeOK();
+            result.setResponseMessage("OK");
+            result.setSuccessful(true);
+        } else {
+            result.setResponseMessage(failed + " message(s) failed to publish: " + error);
+        }
+
+        if (resolveSettings().isPublisherConfirms()) {
+            ConfirmTracker.Confirms confirms = openEngine.getConfirmsAndReset();
+            long acks = confirms.getAcks();
+            long nacks = confirms.getNacks();
+
+            result.setResponseHeaders(result.getResponseHeaders()
+                    + CONFIRM_ACKS_PARAMETER + ": " + acks + "\n"
+                    + CONFIRM_NACKS_PARAMETER + ": " + nacks + "\n");
+
+            if (nacks > 0) {
+                result.setSuccessful(false);
+                result.setResponseCode(DEFAULT_RESPONSE_CODE);
+                result.setResponseMessage(nacks + " message(s) nacked by broker");
+            }
+        }
+
+        if (workerReturns != null) {
+            applyReturns(result, workerReturns.getReturnsAndReset(), published);
+        }
+
+        recordLatencies(latencies);
+        applyLatencyPercentiles(result);
+        applyNodeConnections(result);
+    }
+
+    /**
+     * Start the workers with the first sample, they publish until the thread finishes.
+     *
+     * @return the running engine
+     */
+    private OpenModelEngine startEngine() {
+        if (engine != null) {
+            return engine;
+        }
+
+        PublisherSettings settings = resolveSettings();
+
+        if (settings.isUseTx()) {
+            throw new IllegalArgumentException("Transactions are not supported by the open model publisher");
+        }
+
+        if (RATE_PROFILE_OFF.equals(settings.getRateProfile())) {
+            throw new IllegalArgumentException("The open model publisher needs a rate profile");
+        }
+
+        RateProfile profile = new RateProfile(settings.getRateProfile(), settings.getRate(),
+                settings.getPeakRate(), settings.getRatePeriod(), settings.getBurstTime());
+        List<MessagePayload> payloads = new ArrayList<>();
+
+        for (int i = 0; i < getWorkersAsInt(); i++) {
+            payloads.add(createPayload());
+        }
+
+        payloadDescription = payloads.get(0).describe();
+        workerReturns = settings.isMandatory() ? new ReturnTracker() : null;
+        // the threads of the element publish on a shared schedule, so together they publish at the rate of the profile
+        engine = new OpenModelEngine(getName(), ArrivalSchedule.shared(getName(), profile), new WorkerChannels(),
+                settings, getProperties());
+        engine.start(payloads);
+        reportElapsedNanos = engine.getElapsedNanos();
+
+        return engine;
+    }
+
+    private void stopEngine() {
+        if (engine != null) {
+            engine.stop(getTimeoutAsInt());
+            engine = null;
+        }
+    }
+
+    /**
+     * Workers open their channels concurrently, while the connection of the thread is not thread-safe.
+     */
+    @Override
+    protected synchronized Channel createChannel() throws IOException, NoSuchAlgorithmException,
+            KeyManagementException, TimeoutException {
+        return super.createChannel();
+    }
+
+    @Override
+    public void threadFinished() {
+        stopEngine();
+        super.threadFinished();
+    }
+
+    @Override
+    public boolean interrupt() {
+        stopEngine();
+        return super.interrupt();
+    }
+
+    /**
+     * @return the number of worker channels, each published on by its own thread
+     */
+    public String getWorkers() {
+        return getPropertyAsString(WORKERS, DEFAULT_WORKERS_STRING);
+    }
+
+    public void setWorkers(String workers) {
+        setProperty(WORKERS, workers);
+    }
+
+    public int getWorkersAsInt() {
+        return Math.max(1, getPropertyAsInt(WORKERS, DEFAULT_WORKERS));
+    }
+
+    /**
+     * @return the time covered by every sample, in milliseconds
+     */
+    public String getReportInterval() {
+        return getPropertyAsString(REPORT_INTERVAL, DEFAULT_REPORT_INTERVAL_STRING);
+    }
+
+    public void setReportInterval(String interval) {
+        setProperty(REPORT_INTERVAL, interval);
+    }
+
+    public int getReportIntervalAsInt() {
+        int interval = getPropertyAsInt(REPORT_INTERVAL, DEFAULT_REPORT_INTERVAL);
+
+        return interval > 0 ? interval : DEFAULT_REPORT_INTERVAL;
+    }
+
+    /**
+     * Opens the worker channels in the modes selected for the publisher.
+     */
+    private final class WorkerChannels implements OpenModelEngine.WorkerChannels {
+
+        @Override
+        public Channel open() throws Exception {
+            Channel channel = createChannel();
+            PublisherSettings settings = resolveSettings();
+
+            if (settings.isPublisherConfirms()) {
+                channel.confirmSelect();
+                ConfirmTracker tracker = new ConfirmTracker(channel, getConfirmWindowAsInt(), true);
+                channel.addConfirmListener(tracker);
+                workerConfirms.put(channel, tracker);
+
+                if (channel instanceof Recoverable) {
+                    ((Recoverable) channel).addRecoveryListener(new RecoveryListener() {
+                        @Override
+                        public void handleRecovery(Recoverable recoverable) {
+                            int lost = tracker.reset();
+
+                            if (lost > 0) {
+                                log.warn("{} message(s) published before channel recovery will not be confirmed", lost);
+                            }
+                        }
+
+                        @Override
+                        public void handleRecoveryStarted(Recoverable recoverable) {
+                            // confirms are reset once recovered
+                        }
+                    });
+                }
+            }
+
+            if (workerReturns != null) {
+                channel.addReturnListener(workerReturns);
+            }
+
+            return channel;
+        }
+
+        @Override
+        public ConfirmTracker confirmTracker(Channel channel) {
+            return workerConfirms.get(channel);
+        }
+
+        @Override
+        public void release(Channel channel) {
+            workerConfirms.remove(channel);
+            releaseChannel(channel);
+        }
+    }
+}
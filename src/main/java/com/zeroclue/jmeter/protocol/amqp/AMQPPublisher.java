@@ -2,16 +2,19 @@ package com.zeroclue.jmeter.protocol.amqp;
 
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.HdrHistogram.Histogram;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.samplers.Entry;
@@ -51,15 +54,118 @@ public class AMQPPublisher extends AMQPSampler implements Interruptible {
     private static final String PERSISTENT          = "AMQPPublisher.Persistent";
     private static final String USE_TX              = "AMQPPublisher.UseTx";
     private static final String APP_ID              = "AMQPPublisher.AppId";
+    private static final String PUBLISHER_CONFIRMS  = "AMQPPublisher.PublisherConfirms";
+    private static final String CONFIRM_WINDOW      = "AMQPPublisher.ConfirmWindow";
+    private static final String PAYLOAD_SOURCE      = "AMQPPublisher.PayloadSource";
+    private static final String PAYLOAD_FILE        = "AMQPPublisher.PayloadFile";
+    private static final String TIMESTAMP_MESSAGES  = "AMQPPublisher.TimestampMessages";
+    private static final String PAYLOAD_SIZES       = "AMQPPublisher.PayloadSizes";
+    private static final String PAYLOAD_FILL        = "AMQPPublisher.PayloadFill";
+    private static final String PAUSE_WHILE_BLOCKED = "AMQPPublisher.PauseWhileBlocked";
+    private static final String MANDATORY           = "AMQPPublisher.Mandatory";
+    private static final String RATE_PROFILE        = "AMQPPublisher.RateProfile";
+    private static final String RATE                = "AMQPPublisher.Rate";
+    private static final String PEAK_RATE           = "AMQPPublisher.PeakRate";
+    private static final String RATE_PERIOD         = "AMQPPublisher.RatePeriod";
+    private static final String BURST_TIME          = "AMQPPublisher.BurstTime";
+
+    public static final String PAYLOAD_SOURCE_TEXT      = "Text";
+    public static final String PAYLOAD_SOURCE_HEX       = "Hex";
+    public static final String PAYLOAD_SOURCE_BASE64    = "Base64";
+    public static final String PAYLOAD_SOURCE_FILE      = "File";
+    public static final String PAYLOAD_SOURCE_GENERATED = "Generated";
+
+    public static final String[] PAYLOAD_SOURCES = new String[] {
+        PAYLOAD_SOURCE_TEXT,
+        PAYLOAD_SOURCE_HEX,
+        PAYLOAD_SOURCE_BASE64,
+        PAYLOAD_SOURCE_FILE,
+        PAYLOAD_SOURCE_GENERATED
+    };
+
+    public static final String PAYLOAD_FILL_RANDOM          = "Random";
+    public static final String PAYLOAD_FILL_COMPRESSIBLE    = "Compressible";
+    public static final String PAYLOAD_FILL_ZEROS           = "Zeros";
+
+    public static final String[] PAYLOAD_FILLS = new String[] {
+        PAYLOAD_FILL_RANDOM,
+        PAYLOAD_FILL_COMPRESSIBLE,
+        PAYLOAD_FILL_ZEROS
+    };
+
+    public static final String RATE_PROFILE_OFF         = "Off";
+    public static final String RATE_PROFILE_CONSTANT    = "Constant";
+    public static final String RATE_PROFILE_STEP        = "Step";
+    public static final String RATE_PROFILE_RAMP        = "Ramp";
+    public static final String RATE_PROFILE_SINE        = "Sine";
+    public static final String RATE_PROFILE_BURST       = "Burst";
+
+    public static final String[] RATE_PROFILES = new String[] {
+        RATE_PROFILE_OFF,
+        RATE_PROFILE_CONSTANT,
+        RATE_PROFILE_STEP,
+        RATE_PROFILE_RAMP,
+        RATE_PROFILE_SINE,
+        RATE_PROFILE_BURST
+    };
+
+    public static final String CONFIRM_ACKS_PARAMETER           = "Confirm Acks";
+    public static final String CONFIRM_NACKS_PARAMETER          = "Confirm Nacks";
+    public static final String CONFIRM_AVG_LATENCY_PARAMETER    = "Confirm Avg Latency (us)";
+    public static final String CONFIRM_MAX_LATENCY_PARAMETER    = "Confirm Max Latency (us)";
 
     public static final boolean DEFAULT_PERSISTENT   = false;
     public static final boolean DEFAULT_USE_TX       = false;
+    public static final boolean DEFAULT_PUBLISHER_CONFIRMS = false;
+    public static final int DEFAULT_CONFIRM_WINDOW   = 1000;
+    public static final String DEFAULT_CONFIRM_WINDOW_STRING = Integer.toString(DEFAULT_CONFIRM_WINDOW);
     public static final int DEFAULT_MESSAGE_PRIORITY = 0;
     public static final String DEFAULT_RESPONSE_CODE = "500";
     public static final String DEFAULT_CONTENT_TYPE  = "text/plain";
     public static final String DEFAULT_ENCODING      = "utf-8";
+    public static final boolean DEFAULT_TIMESTAMP_MESSAGES = false;
+    public static final boolean DEFAULT_PAUSE_WHILE_BLOCKED = false;
+    public static final boolean DEFAULT_MANDATORY = false;
+
+    public static final String PAUSED_TIME_PARAMETER = "Paused Time (ms)";
+
+    public static final String RETURNED_PARAMETER               = "Returned Messages";
+    public static final String RETURNED_ROUTING_KEYS_PARAMETER  = "Returned Routing Keys";
+    public static final String DELIVERED_PARAMETER              = "Delivered Messages";
+
+    public static final String TARGET_RATE_PARAMETER    = "Target Rate (msg/s)";
+    public static final String ACHIEVED_RATE_PARAMETER  = "Achieved Rate (msg/s)";
+    public static final String LIMITER_WAIT_PARAMETER   = "Limiter Wait (ms)";
+
+    public static final String DEFAULT_RATE_PROFILE = RATE_PROFILE_OFF;
+    public static final int DEFAULT_RATE        = 100;
+    public static final String DEFAULT_RATE_STRING = Integer.toString(DEFAULT_RATE);
+    public static final int DEFAULT_PEAK_RATE   = 1000;
+    public static final String DEFAULT_PEAK_RATE_STRING = Integer.toString(DEFAULT_PEAK_RATE);
+    public static final int DEFAULT_RATE_PERIOD = 60;
+    public static final String DEFAULT_RATE_PERIOD_STRING = Integer.toString(DEFAULT_RATE_PERIOD);
+    public static final int DEFAULT_BURST_TIME  = 10;
+    public static final String DEFAULT_BURST_TIME_STRING = Integer.toString(DEFAULT_BURST_TIME);
+
+    public static final String DEFAULT_PAYLOAD_SOURCE = PAYLOAD_SOURCE_TEXT;
+    public static final String DEFAULT_PAYLOAD_SIZES  = "1k";
+    public static final String DEFAULT_PAYLOAD_FILL   = PAYLOAD_FILL_RANDOM;
 
     private transient Channel channel;
+    private transient ConfirmTracker confirmTracker;
+    private transient ReturnTracker returnTracker;
+    private transient PublisherSettings settings;
+    private transient Channel configuredChannel;
+    private transient boolean txSelected;
+    private transient MessagePropertiesTemplate propertiesTemplate;
+    private transient MessagePayload payload;
+    private transient boolean dynamicPayload;
+    private transient Map<String, Object> stampedHeaders;
+    private transient AMQP.BasicProperties sizedProperties;     // last properties measured for byte accounting
+    private transient long contentHeaderSize;
+    private transient RateLimiter rateLimiter;
+    private transient long ratePermits;         // limiter readings at the end of the previous sample
+    private transient long rateElapsedNanos;
 
     public AMQPPublisher() {
         super();
@@ -75,15 +181,31 @@ public class AMQPPublisher extends AMQPSampler implements Interruptible {
         result.setSuccessful(false);
         result.setResponseCode(DEFAULT_RESPONSE_CODE);
 
+        applyWarmUpResult(result);
+        applyRecoveryResults(result);
+        resolveSettings();
+
+        RateLimiter limiter;
+
         try {
             initChannel();
+            applyConnectTime(result);
+            limiter = resolveRateLimiter();
         } catch (Exception ex) {
             log.error("Failed to initialize channel : ", ex);
             result.setResponseMessage(ex.toString());
             return result;
         }
 
-        String data = getMessage();     // sampler data
+        MessagePayload messagePayload;
+
+        try {
+            messagePayload = resolvePayload();
+        } catch (RuntimeException ex) {
+            log.error("Failed to load message payload", ex);
+            result.setResponseMessage(ex.toString());
+            return result;
+        }
 
         result.setSampleLabel(getTitle());
 
@@ -92,52 +214,364 @@ public class AMQPPublisher extends AMQPSampler implements Interruptible {
          */
 
         // aggregate samples
-        int loop = getIterationsAsInt();
+        int loop = settings.getIterations();
+        int frameMax = getFrameMax();
+        long sentBytes = 0;
+
+        if (confirmTracker != null) {
+            confirmTracker.getFirstConfirmTimeAndReset();
+        }
+
+        // with pause while blocked, wait out broker flow control before the sample is timed
+        BlockedState blocked = getBlockedState();
+        boolean pauseWhileBlocked = settings.isPauseWhileBlocked() && blocked != null;
+        long pausedNanos = 0;
+
+        if (pauseWhileBlocked && blocked.isBlocked()) {
+            long pauseStart = System.nanoTime();
+
+            try {
+                blocked.awaitUnblocked();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();     // re-interrupt the current thread
+                log.warn("Interrupted while the connection was blocked", ex);
+                result.setResponseMessage("Connection blocked: " + blocked.getReason());
+                return result;
+            }
+
+            pausedNanos = System.nanoTime() - pauseStart;
+        }
+
+        // the first message waits for the rate limiter before the sample is timed, as if the sample started later
+        long limiterWaitNanos = 0;
+
+        if (limiter != null) {
+            try {
+                limiterWaitNanos = limiter.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();     // re-interrupt the current thread
+                log.warn("Interrupted while waiting for the rate limiter", ex);
+                result.setResponseMessage(ex.toString());
+                return result;
+            }
+        }
+
+        long blockedAtStart = blocked != null ? blocked.getBlockedNanos() : 0;
+        long sampleStart = System.nanoTime();
         result.sampleStart();   // start timing
 
         try {
             AMQP.BasicProperties messageProperties = getProperties();
-            byte[] messageBytes = getMessageBytes();
+            String exchange = settings.getExchange();
+            String routingKey = settings.getRoutingKey();
+            boolean mandatory = settings.isMandatory();
+            // with publisher confirms, the latency of a message is its confirm latency
+            boolean recordPublishLatency = settings.isLatencyPercentiles() && confirmTracker == null;
 
             for (int idx = 0; idx < loop; idx++) {
                 // try to force jms semantics.
                 // but this does not work since RabbitMQ does not sync to disk if consumers are connected as
                 // seen by iostat -cd 1. TPS value remains at 0.
 
-                channel.basicPublish(getExchange(), getMessageRoutingKey(), messageProperties, messageBytes);
+                // wait for the rate limiter and flow control before the message is registered and stamped,
+                // so the waits are neither part of its latency nor leave a confirm slot taken if interrupted
+                if (limiter != null && idx > 0) {
+                    limiterWaitNanos += limiter.acquire();
+                }
+
+                if (pauseWhileBlocked && blocked.isBlocked()) {
+                    blocked.awaitUnblocked();
+                }
+
+                long seqNo = confirmTracker != null ? confirmTracker.register(settings.getTimeout()) : -1;
+                AMQP.BasicProperties properties;
+                byte[] body;
+
+                try {
+                    properties = settings.isTimestampMessages() ? stamp(messageProperties) : messageProperties;
+                    body = messagePayload.next();
+
+                    if (recordPublishLatency) {
+                        long start = System.nanoTime();
+                        channel.basicPublish(exchange, routingKey, mandatory, properties, body);
+                        recordLatency(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    } else {
+                        channel.basicPublish(exchange, routingKey, mandatory, properties, body);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    // the message will never be confirmed, give its slot in the window back
+                    if (seqNo >= 0) {
+                        confirmTracker.unregister(seqNo);
+                    }
+
+                    throw ex;
+                }
+
+                // without confirms, the latency is the time to hand the first message over to the broker
+                if (idx == 0 && confirmTracker == null) {
+                    result.latencyEnd();
+                }
+
+                if (properties != sizedProperties) {
+                    sizedProperties = properties;
+                    contentHeaderSize = FrameSizes.contentHeader(properties);
+                }
+
+                sentBytes += FrameSizes.publish(exchange, routingKey, contentHeaderSize, body.length, frameMax);
             }
 
             // commit the sample
-            if (getUseTx()) {
+            if (settings.isUseTx()) {
                 channel.txCommit();
             }
 
+            // wait for the broker to confirm the sample
+            if (confirmTracker != null && !confirmTracker.awaitConfirms(settings.getTimeout())) {
+                throw new TimeoutException("Timed out waiting for publisher confirms, "
+                        + confirmTracker.getOutstanding() + " unconfirmed");
+            }
+
+            // with confirms, the latency is the time to the first confirm
+            if (confirmTracker != null) {
+                long firstConfirm = confirmTracker.getFirstConfirmTimeAndReset();
+
+                if (firstConfirm != 0) {
+                    result.setLatency(TimeUnit.NANOSECONDS.toMillis(Math.max(0, firstConfirm - sampleStart)));
+                }
+            }
+
             /*
              * Set up the sample result details
              */
 
-            result.setSamplerData(data);
+            result.setSamplerData(messagePayload.describe());
             result.setResponseData("OK", null);
             result.setDataType(SampleResult.TEXT);
 
-            result.setRequestHeaders(formatHeaders());
+            result.setRequestHeaders(propertiesTemplate.getFormattedHeaders());
 
             result.setResponseCodeOK();
             result.setResponseMessage("OK");
             result.setSuccessful(true);
+
+            if (confirmTracker != null) {
+                applyConfirms(result);
+            }
+
+            if (returnTracker != null) {
+                applyReturns(result, returnTracker.getReturnsAndReset(), loop);
+            }
+
+            applyLatencyPercentiles(result);
+            applyNodeConnections(result);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();     // re-interrupt the current thread
+            log.warn("Interrupted while publishing", ex);
+            result.setResponseCode("000");
+            result.setResponseMessage(ex.toString());
         } catch (Exception ex) {
             log.warn(ex.getMessage(), ex);
             result.setResponseCode("000");
             result.setResponseMessage(ex.toString());
         } finally {
             result.sampleEnd();     // end timing
+            result.setSentBytes(sentBytes);
+            applyBlocked(result, blocked, blockedAtStart);
+
+            if (pausedNanos > 0) {
+                result.setResponseHeaders(StringUtils.defaultString(result.getResponseHeaders())
+                        + PAUSED_TIME_PARAMETER + ": " + TimeUnit.NANOSECONDS.toMillis(pausedNanos) + "\n");
+            }
+
+            if (limiter != null) {
+                applyRates(result, limiter, limiterWaitNanos);
+            }
         }
 
         return result;
     }
 
-    private byte[] getMessageBytes() {
-        return getMessage().getBytes(StandardCharsets.UTF_8);
+    /**
+     * Open the channel and set up transactions or publisher confirms, so the first sample only publishes.
+     */
+    @Override
+    protected void warmUp() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+        resolveSettings();
+        super.warmUp();
+    }
+
+    /**
+     * Report acks, nacks and confirm latency collected since the previous sample.
+     * Nacked messages fail the sample, as the broker could not take responsibility for them.
+     */
+    private void applyConfirms(SampleResult result) {
+        ConfirmTracker.Confirms confirms = confirmTracker.getConfirmsAndReset();
+        long acks = confirms.getAcks();
+        long nacks = confirms.getNacks();
+        long avgLatency = confirms.getAvgLatencyNanos();
+        long maxLatency = confirms.getMaxLatencyNanos();
+        Histogram latencies = confirmTracker.getLatencyHistogramAndReset();
+
+        if (latencies != null) {
+            recordLatencies(latencies);
+        }
+
+        String headers = CONFIRM_ACKS_PARAMETER + ": " + acks + "\n"
+                + CONFIRM_NACKS_PARAMETER + ": " + nacks + "\n"
+                + CONFIRM_AVG_LATENCY_PARAMETER + ": " + TimeUnit.NANOSECONDS.toMicros(avgLatency) + "\n"
+                + CONFIRM_MAX_LATENCY_PARAMETER + ": " + TimeUnit.NANOSECONDS.toMicros(maxLatency) + "\n";
+
+        result.setResponseHeaders(headers);
+
+        if (nacks > 0) {
+            result.setSuccessful(false);
+            result.setResponseCode(DEFAULT_RESPONSE_CODE);
+            result.setResponseMessage(nacks + " message(s) nacked by broker");
+        }
+    }
+
+    /**
+     * Report the mandatory messages returned as unroutable by the broker, per routing key.
+     * Returned messages fail the sample, as they have not been delivered to any queue.
+     */
+    protected void applyReturns(SampleResult result, ReturnTracker.Returns returns, long published) {
+        result.setResponseHeaders(StringUtils.defaultString(result.getResponseHeaders())
+                + RETURNED_PARAMETER + ": " + returns.getCount() + "\n"
+                + DELIVERED_PARAMETER + ": " + Math.max(0, published - returns.getCount()) + "\n");
+
+        if (returns.getCount() > 0) {
+            result.setResponseHeaders(result.getResponseHeaders()
+                    + RETURNED_ROUTING_KEYS_PARAMETER + ": " + returns.formatPerRoutingKey() + "\n");
+            result.setSuccessful(false);
+            result.setResponseCode(Integer.toString(returns.getReplyCode()));
+            result.setResponseMessage(returns.getCount() + " of " + published + " message(s) returned by broker: "
+                    + returns.getReplyText());
+        }
+    }
+
+    /**
+     * Report the target rate of the rate profile against the rate achieved by all threads of this element,
+     * both averaged since the previous sample of this thread.
+     */
+    private void applyRates(SampleResult result, RateLimiter limiter, long waitNanos) {
+        long permits = limiter.getPermits();
+        long elapsedNanos = limiter.getElapsedNanos();
+        double seconds = (elapsedNanos - rateElapsedNanos) / 1e9;
+        double achieved = seconds > 0 ? (permits - ratePermits) / seconds : 0;
+        double target = limiter.getTargetRate(rateElapsedNanos, elapsedNanos);
+
+        ratePermits = permits;
+        rateElapsedNanos = elapsedNanos;
+
+        result.setResponseHeaders(StringUtils.defaultString(result.getResponseHeaders())
+                + TARGET_RATE_PARAMETER + ": " + String.format(Locale.ROOT, "%.1f", target) + "\n"
+                + ACHIEVED_RATE_PARAMETER + ": " + String.format(Locale.ROOT, "%.1f", achieved) + "\n"
+                + LIMITER_WAIT_PARAMETER + ": " + TimeUnit.NANOSECONDS.toMillis(waitNanos) + "\n");
+    }
+
+    /**
+     * Resolve the rate limiter shared by all threads of this element, the limiter is only looked up again
+     * if the settings have dynamic values.
+     *
+     * @return the rate limiter, or null if the rate profile is off
+     */
+    private RateLimiter resolveRateLimiter() {
+        if (RATE_PROFILE_OFF.equals(settings.getRateProfile())) {
+            return null;
+        }
+
+        if (rateLimiter == null || settings.isDynamic()) {
+            RateProfile profile = new RateProfile(settings.getRateProfile(), settings.getRate(),
+                    settings.getPeakRate(), settings.getRatePeriod(), settings.getBurstTime());
+            RateLimiter limiter = RateLimiter.shared(getName(), profile);
+
+            if (limiter != rateLimiter) {
+                rateLimiter = limiter;
+                ratePermits = 0;
+                rateElapsedNanos = 0;
+            }
+        }
+
+        return rateLimiter;
+    }
+
+    /**
+     * Resolve the settings snapshot for the current sample,
+     * the snapshot is only rebuilt if any of its properties has a dynamic value.
+     *
+     * @return the settings snapshot
+     */
+    protected PublisherSettings resolveSettings() {
+        if (settings == null || settings.isDynamic()) {
+            settings = new PublisherSettings(this, hasDynamicProperty(EXCHANGE, MESSAGE_ROUTING_KEY, ITERATIONS,
+                    TIMEOUT, USE_TX, PUBLISHER_CONFIRMS, TIMESTAMP_MESSAGES, LATENCY_PERCENTILES, PAUSE_WHILE_BLOCKED,
+                    MANDATORY, RATE_PROFILE, RATE, PEAK_RATE, RATE_PERIOD, BURST_TIME));
+        }
+
+        return settings;
+    }
+
+    /**
+     * Copy the message properties with the send timestamp and sequence number headers added.
+     * The header map is reused, as the client serializes the properties before basicPublish returns.
+     */
+    private AMQP.BasicProperties stamp(AMQP.BasicProperties properties) {
+        if (stampedHeaders == null) {
+            stampedHeaders = new HashMap<>();
+        }
+
+        return stamp(properties, stampedHeaders);
+    }
+
+    /**
+     * @param properties the message properties
+     * @param stampedHeaders the header map to reuse, owned by the publishing thread
+     * @return a copy of the properties with the send timestamp and sequence number headers added
+     */
+    static AMQP.BasicProperties stamp(AMQP.BasicProperties properties, Map<String, Object> stampedHeaders) {
+        stampedHeaders.clear();
+
+        if (properties.getHeaders() != null) {
+            stampedHeaders.putAll(properties.getHeaders());
+        }
+
+        stampedHeaders.put(MessageTimestamps.SEQUENCE_HEADER, MessageTimestamps.nextSequence());
+        stampedHeaders.put(MessageTimestamps.SEND_TIME_HEADER, MessageTimestamps.currentTimeMicros());
+
+        return properties.builder().headers(stampedHeaders).build();
+    }
+
+    /**
+     * Resolve the message payload for the current sample, the payload is decoded
+     * or loaded only once unless its properties have dynamic values.
+     *
+     * @return the message payload
+     */
+    private MessagePayload resolvePayload() {
+        if (payload == null || dynamicPayload) {
+            payload = createPayload();
+            dynamicPayload = hasDynamicProperty(MESSAGE, PAYLOAD_SOURCE, PAYLOAD_FILE, PAYLOAD_SIZES, PAYLOAD_FILL);
+        }
+
+        return payload;
+    }
+
+    /**
+     * @return a new payload instance, owned by the calling thread
+     */
+    protected MessagePayload createPayload() {
+        switch (getPayloadSource()) {
+            case PAYLOAD_SOURCE_HEX:
+                return MessagePayload.hex(getMessage());
+            case PAYLOAD_SOURCE_BASE64:
+                return MessagePayload.base64(getMessage());
+            case PAYLOAD_SOURCE_FILE:
+                return MessagePayload.files(getPayloadFile());
+            case PAYLOAD_SOURCE_GENERATED:
+                return new GeneratedPayload(getPayloadSizes(), getPayloadFill());
+            default:
+                return MessagePayload.text(getMessage());
+        }
     }
 
     /**
@@ -162,6 +596,51 @@ public class AMQPPublisher extends AMQPSampler implements Interruptible {
         setProperty(MESSAGE, content);
     }
 
+    /**
+     * @return the source of the message body, one of {@link #PAYLOAD_SOURCES}
+     */
+    public String getPayloadSource() {
+        return getPropertyAsString(PAYLOAD_SOURCE, DEFAULT_PAYLOAD_SOURCE);
+    }
+
+    public void setPayloadSource(String source) {
+        setProperty(PAYLOAD_SOURCE, source);
+    }
+
+    /**
+     * @return the file, or the directory of files, to publish for the file payload source
+     */
+    public String getPayloadFile() {
+        return getPropertyAsString(PAYLOAD_FILE);
+    }
+
+    public void setPayloadFile(String path) {
+        setProperty(PAYLOAD_FILE, path);
+    }
+
+    /**
+     * @return the size distribution of generated payloads: a fixed size, a min-max range,
+     * or comma-separated size:weight buckets
+     */
+    public String getPayloadSizes() {
+        return getPropertyAsString(PAYLOAD_SIZES, DEFAULT_PAYLOAD_SIZES);
+    }
+
+    public void setPayloadSizes(String sizes) {
+        setProperty(PAYLOAD_SIZES, sizes);
+    }
+
+    /**
+     * @return the fill pattern of generated payloads, one of {@link #PAYLOAD_FILLS}
+     */
+    public String getPayloadFill() {
+        return getPropertyAsString(PAYLOAD_FILL, DEFAULT_PAYLOAD_FILL);
+    }
+
+    public void setPayloadFill(String fill) {
+        setProperty(PAYLOAD_FILL, fill);
+    }
+
     /**
      * @return the message type for the sample
      */
@@ -265,6 +744,134 @@ public class AMQPPublisher extends AMQPSampler implements Interruptible {
         setProperty(USE_TX, tx);
     }
 
+    public boolean getPublisherConfirms() {
+        return getPropertyAsBoolean(PUBLISHER_CONFIRMS, DEFAULT_PUBLISHER_CONFIRMS);
+    }
+
+    public void setPublisherConfirms(Boolean confirms) {
+        setProperty(PUBLISHER_CONFIRMS, confirms);
+    }
+
+    /**
+     * @return the max number of unconfirmed messages in flight, 0 means unbounded
+     */
+    public String getConfirmWindow() {
+        return getPropertyAsString(CONFIRM_WINDOW, DEFAULT_CONFIRM_WINDOW_STRING);
+    }
+
+    public void setConfirmWindow(String window) {
+        setProperty(CONFIRM_WINDOW, window);
+    }
+
+    public int getConfirmWindowAsInt() {
+        return getPropertyAsInt(CONFIRM_WINDOW, DEFAULT_CONFIRM_WINDOW);
+    }
+
+    /**
+     * @return whether a send timestamp and a sequence number are added to the headers of every message
+     */
+    public boolean getTimestampMessages() {
+        return getPropertyAsBoolean(TIMESTAMP_MESSAGES, DEFAULT_TIMESTAMP_MESSAGES);
+    }
+
+    public void setTimestampMessages(Boolean timestamp) {
+        setProperty(TIMESTAMP_MESSAGES, timestamp);
+    }
+
+    /**
+     * @return whether to wait for the broker to unblock the connection before publishing, instead of
+     * publishing into a blocked connection
+     */
+    public boolean getPauseWhileBlocked() {
+        return getPropertyAsBoolean(PAUSE_WHILE_BLOCKED, DEFAULT_PAUSE_WHILE_BLOCKED);
+    }
+
+    public void setPauseWhileBlocked(Boolean pause) {
+        setProperty(PAUSE_WHILE_BLOCKED, pause);
+    }
+
+    /**
+     * @return whether messages are published as mandatory, so the broker returns them if they cannot be routed
+     */
+    public boolean getMandatory() {
+        return getPropertyAsBoolean(MANDATORY, DEFAULT_MANDATORY);
+    }
+
+    public void setMandatory(Boolean mandatory) {
+        setProperty(MANDATORY, mandatory);
+    }
+
+    /**
+     * @return the shape of the publish rate over the test, off to publish as fast as possible
+     */
+    public String getRateProfile() {
+        return getPropertyAsString(RATE_PROFILE, DEFAULT_RATE_PROFILE);
+    }
+
+    public void setRateProfile(String profile) {
+        setProperty(RATE_PROFILE, profile);
+    }
+
+    /**
+     * @return the base publish rate of all threads of this element, in messages per second
+     */
+    public String getRate() {
+        return getPropertyAsString(RATE, DEFAULT_RATE_STRING);
+    }
+
+    public void setRate(String rate) {
+        setProperty(RATE, rate);
+    }
+
+    public int getRateAsInt() {
+        return getPropertyAsInt(RATE, DEFAULT_RATE);
+    }
+
+    /**
+     * @return the peak publish rate of the step, ramp, sine and burst profiles, in messages per second
+     */
+    public String getPeakRate() {
+        return getPropertyAsString(PEAK_RATE, DEFAULT_PEAK_RATE_STRING);
+    }
+
+    public void setPeakRate(String rate) {
+        setProperty(PEAK_RATE, rate);
+    }
+
+    public int getPeakRateAsInt() {
+        return getPropertyAsInt(PEAK_RATE, DEFAULT_PEAK_RATE);
+    }
+
+    /**
+     * @return the period of the step, ramp, sine and burst profiles, in seconds
+     */
+    public String getRatePeriod() {
+        return getPropertyAsString(RATE_PERIOD, DEFAULT_RATE_PERIOD_STRING);
+    }
+
+    public void setRatePeriod(String period) {
+        setProperty(RATE_PERIOD, period);
+    }
+
+    public int getRatePeriodAsInt() {
+        return getPropertyAsInt(RATE_PERIOD, DEFAULT_RATE_PERIOD);
+    }
+
+    /**
+     * @return the time spent at the peak rate in every period of the burst profile, in seconds
+     */
+    public String getBurstTime() {
+        return getPropertyAsString(BURST_TIME, DEFAULT_BURST_TIME_STRING);
+    }
+
+    public void setBurstTime(String time) {
+        setProperty(BURST_TIME, time);
+    }
+
+    public int getBurstTimeAsInt() {
+        return getPropertyAsInt(BURST_TIME, DEFAULT_BURST_TIME);
+    }
+
     public String getAppId() {
         return getPropertyAsString(APP_ID);
     }
@@ -290,67 +897,91 @@ public class AMQPPublisher extends AMQPSampler implements Interruptible {
     }
 
     protected AMQP.BasicProperties getProperties() {
-        final AMQP.BasicProperties.Builder builder = new AMQP.BasicProperties.Builder();
-        final int deliveryMode = getPersistent() ? 2 : 1;
-        final String contentType = StringUtils.defaultIfEmpty(getContentType(), DEFAULT_CONTENT_TYPE);
-
-        builder.contentType(contentType)
-            .contentEncoding(getContentEncoding())
-            .deliveryMode(deliveryMode)
-            .correlationId(getCorrelationId())
-            .replyTo(getReplyToQueue())
-            .type(getMessageType())
-            .headers(prepareHeaders());
-
-        if (getMessageId() != null && !getMessageId().isEmpty()) {
-            builder.messageId(getMessageId());
+        if (propertiesTemplate == null) {
+            propertiesTemplate = compileProperties();
         }
 
-        if (getMessagePriority() != null && !getMessagePriority().isEmpty()) {
-            builder.priority(getMessagePriorityAsInt());
-        } else {
-            builder.priority(DEFAULT_MESSAGE_PRIORITY);
-        }
-
-        if (getAppId() != null && !getAppId().isEmpty()) {
-            builder.appId(getAppId());
-        }
+        return propertiesTemplate.render();
+    }
 
-        return builder.build();
+    /**
+     * Compile the message properties once per thread,
+     * only fields with dynamic values are rendered again for every sample.
+     */
+    private MessagePropertiesTemplate compileProperties() {
+        return new MessagePropertiesTemplate(getHeaders())
+            .field(hasDynamicProperty(CONTENT_TYPE),
+                b -> b.contentType(StringUtils.defaultIfEmpty(getContentType(), DEFAULT_CONTENT_TYPE)))
+            .field(hasDynamicProperty(CONTENT_ENCODING), b -> b.contentEncoding(getContentEncoding()))
+            .field(hasDynamicProperty(PERSISTENT), b -> b.deliveryMode(getPersistent() ? 2 : 1))
+            .field(hasDynamicProperty(CORRELATION_ID), b -> b.correlationId(getCorrelationId()))
+            .field(hasDynamicProperty(REPLY_TO_QUEUE), b -> b.replyTo(getReplyToQueue()))
+            .field(hasDynamicProperty(MESSAGE_TYPE), b -> b.type(getMessageType()))
+            .field(hasDynamicProperty(MESSAGE_ID), b -> b.messageId(StringUtils.defaultIfEmpty(getMessageId(), null)))
+            .field(hasDynamicProperty(MESSAGE_PRIORITY), b -> b.priority(StringUtils.isEmpty(getMessagePriority())
+                ? DEFAULT_MESSAGE_PRIORITY : getMessagePriorityAsInt()))
+            .field(hasDynamicProperty(APP_ID), b -> b.appId(StringUtils.defaultIfEmpty(getAppId(), null)))
+            .compile();
     }
 
     @Override
     protected boolean initChannel() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
-        boolean ret = super.initChannel();
-
-        if (getUseTx()) {
-            channel.txSelect();
+        if (settings.isUseTx() && settings.isPublisherConfirms()) {
+            throw new IllegalArgumentException("Transactions and publisher confirms cannot be used on the same channel");
         }
 
-        return ret;
-    }
+        boolean ret = super.initChannel();
 
-    private Map<String, Object> prepareHeaders() {
-        Arguments headers = getHeaders();
+        // channel modes are only selected once per channel, whenever a new channel was opened
+        // or a mode was switched on by a variable afterwards
+        if (channel != configuredChannel) {
+            txSelected = false;
+            confirmTracker = null;
+            returnTracker = null;
+            configuredChannel = channel;
+        }
 
-        if (headers != null) {
-            return new HashMap<>(headers.getArgumentsAsMap());
+        // a channel stays in the mode selected first
+        if (settings.isUseTx() && confirmTracker != null || settings.isPublisherConfirms() && txSelected) {
+            throw new IllegalArgumentException("Transactions and publisher confirms cannot be used on the same channel");
         }
 
-        return Collections.emptyMap();
-    }
+        if (settings.isUseTx() && !txSelected) {
+            channel.txSelect();
+            txSelected = true;
+        }
 
-    private String formatHeaders() {
-        Map<String, String> headers = getHeaders().getArgumentsAsMap();
-        StringBuilder sb = new StringBuilder();
+        if (settings.isPublisherConfirms() && confirmTracker == null) {
+            channel.confirmSelect();
+            confirmTracker = new ConfirmTracker(channel, getConfirmWindowAsInt(), settings.isLatencyPercentiles());
+            channel.addConfirmListener(confirmTracker);
+
+            if (channel instanceof Recoverable) {
+                ConfirmTracker tracker = confirmTracker;
+
+                ((Recoverable) channel).addRecoveryListener(new RecoveryListener() {
+                    @Override
+                    public void handleRecovery(Recoverable recoverable) {
+                        int lost = tracker.reset();
+
+                        if (lost > 0) {
+                            log.warn("{} message(s) published before channel recovery will not be confirmed", lost);
+                        }
+                    }
+
+                    @Override
+                    public void handleRecoveryStarted(Recoverable recoverable) {
+                        // confirms are reset once recovered
+                    }
+                });
+            }
+        }
 
-        for (Map.Entry<String,String> entry : headers.entrySet()) {
-            sb.append(entry.getKey())
-                .append(": ")
-                .append(entry.getValue())
-                .append("\n");
+        if (settings.isMandatory() && returnTracker == null) {
+            returnTracker = new ReturnTracker();
+            channel.addReturnListener(returnTracker);
         }
 
-        return sb.toString();
+        return ret;
     }
 }
@@ -1,29 +1,44 @@
 package com.zeroclue.jmeter.protocol.amqp;
 
-import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Address;
 import com.rabbitmq.client.AlreadyClosedException;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
 import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.SocketConfigurator;
+import com.rabbitmq.client.SocketConfigurators;
+import com.rabbitmq.client.impl.FrameHandlerFactory;
+import com.rabbitmq.client.impl.nio.NioParams;
 
 import java.io.IOException;
+import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import org.HdrHistogram.Histogram;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.jmeter.samplers.AbstractSampler;
+import org.apache.jmeter.samplers.SampleResult;
+import org.apache.jmeter.testelement.TestStateListener;
 import org.apache.jmeter.testelement.ThreadListener;
+import org.apache.jmeter.testelement.property.FunctionProperty;
+import org.apache.jmeter.threads.JMeterContextService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public abstract class AMQPSampler extends AbstractSampler implements ThreadListener {
+public abstract class AMQPSampler extends AbstractSampler implements ThreadListener, TestStateListener {
 
     private static final Logger log = LoggerFactory.getLogger(AMQPSampler.class);
 
@@ -42,8 +57,8 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
     protected static final String USERNAME              = "AMQPSampler.Username";
     protected static final String PASSWORD              = "AMQPSampler.Password";
     protected static final String HEARTBEAT             = "AMQPSampler.Heartbeat";
-    private static final String TIMEOUT                 = "AMQPSampler.Timeout";
-    private static final String ITERATIONS              = "AMQPSampler.Iterations";
+    protected static final String TIMEOUT               = "AMQPSampler.Timeout";
+    protected static final String ITERATIONS            = "AMQPSampler.Iterations";
     private static final String MESSAGE_TTL             = "AMQPSampler.MessageTTL";
     private static final String MESSAGE_EXPIRES         = "AMQPSampler.MessageExpires";
     private static final String MAX_PRIORITY            = "AMQPSampler.MaxPriority";
@@ -51,6 +66,58 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
     private static final String QUEUE_REDECLARE         = "AMQPSampler.Redeclare";
     private static final String QUEUE_EXCLUSIVE         = "AMQPSampler.QueueExclusive";
     private static final String QUEUE_AUTO_DELETE       = "AMQPSampler.QueueAutoDelete";
+    private static final String SHARED_CONNECTIONS      = "AMQPSampler.SharedConnections";
+    protected static final String LATENCY_PERCENTILES   = "AMQPSampler.LatencyPercentiles";
+    private static final String HOST_DISTRIBUTION       = "AMQPSampler.HostDistribution";
+    private static final String HOST_WEIGHTS            = "AMQPSampler.HostWeights";
+    private static final String DECLARE_ONCE            = "AMQPSampler.DeclareOnce";
+    private static final String EAGER_CONNECT           = "AMQPSampler.EagerConnect";
+    private static final String CONNECT_PARALLELISM     = "AMQPSampler.ConnectParallelism";
+    private static final String SSL_PROTOCOLS           = "AMQPSampler.SSLProtocols";
+    private static final String SSL_CIPHER_SUITES       = "AMQPSampler.SSLCipherSuites";
+    private static final String SSL_KEY_STORE           = "AMQPSampler.SSLKeyStore";
+    private static final String SSL_KEY_STORE_PASSWORD  = "AMQPSampler.SSLKeyStorePassword";
+    private static final String SSL_TRUST_STORE         = "AMQPSampler.SSLTrustStore";
+    private static final String SSL_TRUST_STORE_PASSWORD = "AMQPSampler.SSLTrustStorePassword";
+    private static final String USE_NIO                 = "AMQPSampler.UseNio";
+    private static final String NIO_THREADS             = "AMQPSampler.NioThreads";
+    private static final String NIO_READ_BUFFER_SIZE    = "AMQPSampler.NioReadBufferSize";
+    private static final String NIO_WRITE_BUFFER_SIZE   = "AMQPSampler.NioWriteBufferSize";
+    private static final String DISPATCH_THREADS        = "AMQPSampler.DispatchThreads";
+    private static final String VIRTUAL_THREADS         = "AMQPSampler.VirtualThreads";
+    private static final String AUTOMATIC_RECOVERY      = "AMQPSampler.AutomaticRecovery";
+    private static final String RECOVERY_INTERVAL       = "AMQPSampler.RecoveryInterval";
+
+    public static final String LATENCY_P50_PARAMETER    = "Latency p50 (us)";
+    public static final String LATENCY_P99_PARAMETER    = "Latency p99 (us)";
+    public static final String LATENCY_P999_PARAMETER   = "Latency p99.9 (us)";
+    public static final String LATENCY_MAX_PARAMETER    = "Latency max (us)";
+    public static final String LATENCY_COUNT_PARAMETER  = "Latency count";
+
+    public static final String CONNECT_LABEL_SUFFIX     = " Connect";
+    public static final String RECOVERY_LABEL_SUFFIX    = " Recovery";
+
+    public static final String BLOCKED_REASON_PARAMETER = "Blocked Reason";
+    public static final String BLOCKED_TIME_PARAMETER   = "Blocked Time (ms)";
+    public static final String BLOCKED_TOTAL_PARAMETER  = "Blocked Time Total (ms)";
+
+    public static final String OUTAGE_TIME_PARAMETER    = "Outage Time (ms)";
+    public static final String RECOVERY_TIME_PARAMETER  = "Recovery Time (ms)";
+
+    public static final String NODE_PARAMETER           = "Node";
+    public static final String NODE_CONNECTIONS_PARAMETER = "Node Connections";
+
+    public static final String HOST_DISTRIBUTION_FAILOVER       = "Failover";
+    public static final String HOST_DISTRIBUTION_ROUND_ROBIN    = "Round Robin";
+    public static final String HOST_DISTRIBUTION_RANDOM         = "Random";
+    public static final String HOST_DISTRIBUTION_WEIGHTED       = "Weighted";
+
+    public static final String[] HOST_DISTRIBUTIONS = new String[] {
+        HOST_DISTRIBUTION_FAILOVER,
+        HOST_DISTRIBUTION_ROUND_ROBIN,
+        HOST_DISTRIBUTION_RANDOM,
+        HOST_DISTRIBUTION_WEIGHTED
+    };
 
     public static final String[] EXCHANGE_TYPES = new String[] {
         "direct",
@@ -74,6 +141,7 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
     public static final boolean DEFAULT_QUEUE_AUTO_DELETE = false;
     public static final boolean DEFAULT_QUEUE_REDECLARE = false;
     public static final boolean DEFAULT_QUEUE_EXCLUSIVE = false;
+    public static final boolean DEFAULT_DECLARE_ONCE = false;
 
     public static final String DEFAULT_MSG_TTL = "";
     public static final String DEFAULT_MSG_EXPIRES = "";
@@ -81,11 +149,35 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
 
     public static final String DEFAULT_VIRTUAL_HOST = "/";
     public static final String DEFAULT_HOSTNAME = "localhost";
+    public static final String DEFAULT_HOST_DISTRIBUTION = HOST_DISTRIBUTION_FAILOVER;
+    public static final String DEFAULT_HOST_WEIGHTS = "";
     public static final String DEFAULT_USERNAME = "guest";
     public static final String DEFAULT_PASSWORD = "guest";
 
     public static final boolean DEFAULT_SSL_STATE = false;
     public static final String DEFAULT_SSL_PROTOCOL = "TLS";
+    // blank values keep the JDK defaults, and trust all servers
+    public static final String DEFAULT_SSL_PROTOCOLS = "";
+    public static final String DEFAULT_SSL_CIPHER_SUITES = "";
+    public static final String DEFAULT_SSL_KEY_STORE = "";
+    public static final String DEFAULT_SSL_TRUST_STORE = "";
+
+    public static final boolean DEFAULT_USE_NIO = false;
+    // 0 means one I/O thread per available processor, shared by all connections
+    public static final int DEFAULT_NIO_THREADS = 0;
+    public static final String DEFAULT_NIO_THREADS_STRING = Integer.toString(DEFAULT_NIO_THREADS);
+    public static final int DEFAULT_NIO_BUFFER_SIZE = 32768;
+    public static final String DEFAULT_NIO_BUFFER_SIZE_STRING = Integer.toString(DEFAULT_NIO_BUFFER_SIZE);
+
+    // 0 means every connection dispatches to its consumers on its own pool
+    public static final int DEFAULT_DISPATCH_THREADS = 0;
+    public static final String DEFAULT_DISPATCH_THREADS_STRING = Integer.toString(DEFAULT_DISPATCH_THREADS);
+    public static final boolean DEFAULT_VIRTUAL_THREADS = false;
+
+    public static final boolean DEFAULT_AUTOMATIC_RECOVERY = false;
+    // delay between recovery attempts, in milliseconds
+    public static final int DEFAULT_RECOVERY_INTERVAL = 5000;
+    public static final String DEFAULT_RECOVERY_INTERVAL_STRING = Integer.toString(DEFAULT_RECOVERY_INTERVAL);
 
     public static final int DEFAULT_PORT = 5672;
     public static final String DEFAULT_PORT_STRING = Integer.toString(DEFAULT_PORT);
@@ -93,6 +185,22 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
     public static final int DEFAULT_TIMEOUT = 1000;
     public static final String DEFAULT_TIMEOUT_STRING = Integer.toString(DEFAULT_TIMEOUT);
 
+    // 0 means every thread opens its own private connection
+    public static final int DEFAULT_SHARED_CONNECTIONS = 0;
+    public static final String DEFAULT_SHARED_CONNECTIONS_STRING = Integer.toString(DEFAULT_SHARED_CONNECTIONS);
+
+    public static final boolean DEFAULT_LATENCY_PERCENTILES = false;
+
+    public static final boolean DEFAULT_EAGER_CONNECT = false;
+    // max threads connecting at the same time during warm-up, 0 for no limit
+    public static final int DEFAULT_CONNECT_PARALLELISM = 0;
+    public static final String DEFAULT_CONNECT_PARALLELISM_STRING = Integer.toString(DEFAULT_CONNECT_PARALLELISM);
+
+    /**
+     * Permits bounding the threads connecting at the same time during warm-up, keyed by parallelism.
+     */
+    private static final ConcurrentMap<Integer, Semaphore> CONNECT_PERMITS = new ConcurrentHashMap<>();
+
     public static final int DEFAULT_ITERATIONS = 1;
     public static final String DEFAULT_ITERATIONS_STRING = Integer.toString(DEFAULT_ITERATIONS);
 
@@ -105,50 +213,73 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
 
     private final transient ConnectionFactory factory;
     private transient Connection connection;
+    private transient Histogram latencyHistogram;
+    private transient long connectNanos;     // time spent opening connections, not reported yet
+    private transient long blockedNanos;     // time the samples of the thread spent blocked by flow control
+    private transient SampleResult warmUpResult;
+    private final transient Queue<SampleResult> recoveryResults = new ConcurrentLinkedQueue<>();
 
     protected AMQPSampler() {
-        this.factory = new ConnectionFactory();
+        this.factory = new ConnectionFactory() {
+            @Override
+            protected synchronized FrameHandlerFactory createFrameHandlerFactory() throws IOException {
+                if (!getUseNio()) {
+                    return super.createFrameHandlerFactory();
+                }
+
+                // the NIO loops live in the frame handler factory, share them with the other threads
+                return NioTransport.shared(getNioKey(), super::createFrameHandlerFactory);
+            }
+        };
         this.factory.setRequestedHeartbeat(DEFAULT_HEARTBEAT);
     }
 
     protected boolean initChannel() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
         Channel channel = getChannel();
 
-        try {
-            if (channel != null && !channel.isOpen()) {
-                log.warn("Channel {} closed unexpectedly: {}", channel.getChannelNumber(), channel.getCloseReason());
-                channel = null;     // so we re-open it below
+        if (channel != null && !channel.isOpen()) {
+            // a recovering connection re-opens its channels, topology and consumers by itself
+            if (RecoveryMonitor.isRecovering(channel.getConnection())) {
+                throw new IOException("Connection to " + HostDistribution.nodeOf(channel.getConnection())
+                        + " is recovering: " + channel.getConnection().getCloseReason());
             }
 
-            if (channel == null) {
-                channel = createChannel();
-                setChannel(channel);
+            log.warn("Channel {} closed unexpectedly: {}", channel.getChannelNumber(), channel.getCloseReason());
+            releaseChannel(channel);
+            channel = null;     // so we re-open it below
+        }
+
+        if (channel == null) {
+            channel = createChannel();
+            setChannel(channel);
+
+            boolean queueConfigured = configureQueue(channel);
 
-                boolean queueConfigured = configureQueue(channel);
+            if (!StringUtils.isBlank(getExchange())) {   // use a named exchange
+                Channel exchangeChannel = channel;
 
-                if (!StringUtils.isBlank(getExchange())) {   // use a named exchange
+                declare("exchange|" + getExchange() + '|' + getExchangeType() + '|' + getExchangeDurable()
+                        + '|' + getExchangeAutoDelete() + '|' + getExchangeRedeclare(), false, () -> {
                     if (getExchangeRedeclare()) {
                         deleteExchange();
                     }
 
-                    AMQP.Exchange.DeclareOk declareExchangeResp = channel.exchangeDeclare(getExchange(), getExchangeType(), getExchangeDurable(), getExchangeAutoDelete(), Collections.<String, Object>emptyMap());
+                    exchangeChannel.exchangeDeclare(getExchange(), getExchangeType(), getExchangeDurable(), getExchangeAutoDelete(), Collections.<String, Object>emptyMap());
+                });
 
-                    if (queueConfigured) {
-                        channel.queueBind(getQueue(), getExchange(), getRoutingKey());
-                    }
+                if (queueConfigured) {
+                    declare("binding|" + getQueue() + '|' + getExchange() + '|' + getRoutingKey(), queueExclusive(),
+                            () -> exchangeChannel.queueBind(getQueue(), getExchange(), getRoutingKey()));
                 }
-
-                log.debug("Bound to:"
-                        + "\n\t queue: {}"
-                        + "\n\t exchange: {}"
-                        + "\n\t durable: {}"
-                        + "\n\t routing key: {}"
-                        + "\n\t arguments: {}",
-                        getQueue(), getExchange(), getExchangeDurable(), getRoutingKey(), getQueueArguments());
             }
-        } catch (Exception ex) {
-            log.debug(ex.toString(), ex);
-            // ignore it
+
+            log.debug("Bound to:"
+                    + "\n\t queue: {}"
+                    + "\n\t exchange: {}"
+                    + "\n\t durable: {}"
+                    + "\n\t routing key: {}"
+                    + "\n\t arguments: {}",
+                    getQueue(), getExchange(), getExchangeDurable(), getRoutingKey(), getQueueArguments());
         }
 
         return true;
@@ -158,15 +289,42 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
         boolean queueConfigured = (getQueue() != null && !getQueue().isEmpty());
 
         if (queueConfigured) {
-            if (getQueueRedeclare()) {
-                deleteQueue();
-            }
+            Map<String, Object> arguments = getQueueArguments();
 
-            AMQP.Queue.DeclareOk declareQueueResp = channel.queueDeclare(getQueue(), queueDurable(), queueExclusive(), queueAutoDelete(), getQueueArguments());
+            declare("queue|" + getQueue() + '|' + queueDurable() + '|' + queueAutoDelete() + '|' + getQueueRedeclare()
+                    + '|' + arguments, queueExclusive(), () -> {
+                if (getQueueRedeclare()) {
+                    deleteQueue();
+                }
+
+                channel.queueDeclare(getQueue(), queueDurable(), queueExclusive(), queueAutoDelete(), arguments);
+            });
         }
         return queueConfigured;
     }
 
+    /**
+     * Run a declaration, or with declare once only if it has not been run yet during the test.
+     * Declarations involving exclusive queues are always run, as they are scoped to their connection.
+     *
+     * @param key identifies the declaration within the virtual host
+     * @param exclusive whether the declaration involves an exclusive queue
+     * @param declaration declares the queue, exchange or binding
+     */
+    private void declare(String key, boolean exclusive, TopologyRegistry.Declaration declaration)
+            throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+        if (!getDeclareOnce() || exclusive) {
+            declaration.declare();
+            return;
+        }
+
+        String scope = getHost() + '|' + getPortAsInt() + '|' + getVirtualHost() + '|';
+
+        if (!TopologyRegistry.getInstance().declareOnce(scope + key, declaration)) {
+            log.debug("Skipping {}, already declared", key);
+        }
+    }
+
     private Map<String, Object> getQueueArguments() {
         Map<String, Object> arguments = new HashMap<>();
 
@@ -185,6 +343,146 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
         return arguments;
     }
 
+    /**
+     * Check whether any of the properties is evaluated on every iteration,
+     * i.e. its value contains a variable reference or a function call.
+     *
+     * @param names the property names to check
+     * @return true if any of the properties has a dynamic value
+     */
+    protected boolean hasDynamicProperty(String... names) {
+        for (String name : names) {
+            if (getProperty(name) instanceof FunctionProperty) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Record the latency of a single message into the per-thread histogram.
+     *
+     * @param micros the latency in microseconds
+     */
+    protected void recordLatency(long micros) {
+        getLatencyHistogram().recordValue(Math.max(0, micros));
+    }
+
+    /**
+     * Record the latencies of several messages into the per-thread histogram.
+     *
+     * @param latencies the latencies in microseconds
+     */
+    protected void recordLatencies(Histogram latencies) {
+        getLatencyHistogram().add(latencies);
+    }
+
+    /**
+     * Expose the percentiles of the latencies recorded since the previous sample as response headers,
+     * then reset the histogram for the next sample.
+     *
+     * @param result the sample result
+     */
+    protected void applyLatencyPercentiles(SampleResult result) {
+        if (latencyHistogram == null || latencyHistogram.getTotalCount() == 0) {
+            return;
+        }
+
+        result.setResponseHeaders(StringUtils.defaultString(result.getResponseHeaders())
+            + LATENCY_P50_PARAMETER + ": " + latencyHistogram.getValueAtPercentile(50.0) + "\n"
+            + LATENCY_P99_PARAMETER + ": " + latencyHistogram.getValueAtPercentile(99.0) + "\n"
+            + LATENCY_P999_PARAMETER + ": " + latencyHistogram.getValueAtPercentile(99.9) + "\n"
+            + LATENCY_MAX_PARAMETER + ": " + latencyHistogram.getMaxValue() + "\n"
+            + LATENCY_COUNT_PARAMETER + ": " + latencyHistogram.getTotalCount() + "\n");
+
+        latencyHistogram.reset();
+    }
+
+    private Histogram getLatencyHistogram() {
+        if (latencyHistogram == null) {
+            // auto-resizing, with 3 significant digits
+            latencyHistogram = new Histogram(3);
+        }
+
+        return latencyHistogram;
+    }
+
+    /**
+     * Expose the node the channel is connected to and the open connections per node as response headers,
+     * when connecting to a cluster of several hosts.
+     *
+     * @param result the sample result
+     */
+    protected void applyNodeConnections(SampleResult result) {
+        Channel channel = getChannel();
+
+        if (channel == null || getHost().indexOf(',') < 0) {
+            return;
+        }
+
+        result.setResponseHeaders(StringUtils.defaultString(result.getResponseHeaders())
+            + NODE_PARAMETER + ": " + HostDistribution.nodeOf(channel.getConnection()) + "\n"
+            + NODE_CONNECTIONS_PARAMETER + ": " + HostDistribution.formatNodeConnections() + "\n");
+    }
+
+    /**
+     * @return the flow control state of the connection of the channel, null if there is no channel
+     */
+    BlockedState getBlockedState() {
+        Channel channel = getChannel();
+
+        return channel != null ? BlockedState.of(channel.getConnection()) : null;
+    }
+
+    /**
+     * Flag a sample during which the broker blocked the connection, with the reason and the time spent blocked.
+     * Unaffected samples are left as is.
+     *
+     * @param result the sample result
+     * @param state the flow control state of the connection, may be null
+     * @param blockedNanosAtStart the blocked time of the connection when the sample started
+     */
+    void applyBlocked(SampleResult result, BlockedState state, long blockedNanosAtStart) {
+        if (state == null) {
+            return;
+        }
+
+        long sampleBlockedNanos = state.getBlockedNanos() - blockedNanosAtStart;
+
+        if (sampleBlockedNanos <= 0 && !state.isBlocked()) {
+            return;
+        }
+
+        blockedNanos += sampleBlockedNanos;
+
+        result.setResponseHeaders(StringUtils.defaultString(result.getResponseHeaders())
+            + BLOCKED_REASON_PARAMETER + ": " + state.getReason() + "\n"
+            + BLOCKED_TIME_PARAMETER + ": " + TimeUnit.NANOSECONDS.toMillis(sampleBlockedNanos) + "\n"
+            + BLOCKED_TOTAL_PARAMETER + ": " + TimeUnit.NANOSECONDS.toMillis(blockedNanos) + "\n");
+    }
+
+    /**
+     * Report the time spent opening connections since the previous sample as the connect time of the sample.
+     *
+     * @param result the sample result
+     */
+    protected void applyConnectTime(SampleResult result) {
+        if (connectNanos > 0) {
+            result.setConnectTime(TimeUnit.NANOSECONDS.toMillis(connectNanos));
+            connectNanos = 0;
+        }
+    }
+
+    /**
+     * @return the max frame size negotiated for the connection of the channel, 0 if unlimited
+     */
+    protected int getFrameMax() {
+        Channel channel = getChannel();
+
+        return channel != null ? channel.getConnection().getFrameMax() : 0;
+    }
+
     protected abstract Channel getChannel();
 
     protected abstract void setChannel(Channel channel);
@@ -376,6 +674,161 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
         setProperty(SSL, value.toString());
     }
 
+    /**
+     * @return the comma-separated TLS versions to enable, e.g. TLSv1.3
+     */
+    public String getSslProtocols() {
+        return getPropertyAsString(SSL_PROTOCOLS, DEFAULT_SSL_PROTOCOLS);
+    }
+
+    public void setSslProtocols(String value) {
+        setProperty(SSL_PROTOCOLS, value, DEFAULT_SSL_PROTOCOLS);
+    }
+
+    /**
+     * @return the comma-separated cipher suites to enable
+     */
+    public String getSslCipherSuites() {
+        return getPropertyAsString(SSL_CIPHER_SUITES, DEFAULT_SSL_CIPHER_SUITES);
+    }
+
+    public void setSslCipherSuites(String value) {
+        setProperty(SSL_CIPHER_SUITES, value, DEFAULT_SSL_CIPHER_SUITES);
+    }
+
+    public String getSslKeyStore() {
+        return getPropertyAsString(SSL_KEY_STORE, DEFAULT_SSL_KEY_STORE);
+    }
+
+    public void setSslKeyStore(String value) {
+        setProperty(SSL_KEY_STORE, value, DEFAULT_SSL_KEY_STORE);
+    }
+
+    public String getSslKeyStorePassword() {
+        return getPropertyAsString(SSL_KEY_STORE_PASSWORD);
+    }
+
+    public void setSslKeyStorePassword(String value) {
+        setProperty(SSL_KEY_STORE_PASSWORD, value);
+    }
+
+    public String getSslTrustStore() {
+        return getPropertyAsString(SSL_TRUST_STORE, DEFAULT_SSL_TRUST_STORE);
+    }
+
+    public void setSslTrustStore(String value) {
+        setProperty(SSL_TRUST_STORE, value, DEFAULT_SSL_TRUST_STORE);
+    }
+
+    public String getSslTrustStorePassword() {
+        return getPropertyAsString(SSL_TRUST_STORE_PASSWORD);
+    }
+
+    public void setSslTrustStorePassword(String value) {
+        setProperty(SSL_TRUST_STORE_PASSWORD, value);
+    }
+
+    public boolean getUseNio() {
+        return getPropertyAsBoolean(USE_NIO, DEFAULT_USE_NIO);
+    }
+
+    public void setUseNio(Boolean useNio) {
+        setProperty(USE_NIO, useNio);
+    }
+
+    public String getNioThreads() {
+        return getPropertyAsString(NIO_THREADS, DEFAULT_NIO_THREADS_STRING);
+    }
+
+    public void setNioThreads(String value) {
+        setProperty(NIO_THREADS, value, DEFAULT_NIO_THREADS_STRING);
+    }
+
+    protected int getNioThreadsAsInt() {
+        return Math.max(0, getPropertyAsInt(NIO_THREADS, DEFAULT_NIO_THREADS));
+    }
+
+    public String getNioReadBufferSize() {
+        return getPropertyAsString(NIO_READ_BUFFER_SIZE, DEFAULT_NIO_BUFFER_SIZE_STRING);
+    }
+
+    public void setNioReadBufferSize(String value) {
+        setProperty(NIO_READ_BUFFER_SIZE, value, DEFAULT_NIO_BUFFER_SIZE_STRING);
+    }
+
+    protected int getNioReadBufferSizeAsInt() {
+        int size = getPropertyAsInt(NIO_READ_BUFFER_SIZE, DEFAULT_NIO_BUFFER_SIZE);
+        return size > 0 ? size : DEFAULT_NIO_BUFFER_SIZE;
+    }
+
+    public String getNioWriteBufferSize() {
+        return getPropertyAsString(NIO_WRITE_BUFFER_SIZE, DEFAULT_NIO_BUFFER_SIZE_STRING);
+    }
+
+    public void setNioWriteBufferSize(String value) {
+        setProperty(NIO_WRITE_BUFFER_SIZE, value, DEFAULT_NIO_BUFFER_SIZE_STRING);
+    }
+
+    protected int getNioWriteBufferSizeAsInt() {
+        int size = getPropertyAsInt(NIO_WRITE_BUFFER_SIZE, DEFAULT_NIO_BUFFER_SIZE);
+        return size > 0 ? size : DEFAULT_NIO_BUFFER_SIZE;
+    }
+
+    public String getDispatchThreads() {
+        return getPropertyAsString(DISPATCH_THREADS, DEFAULT_DISPATCH_THREADS_STRING);
+    }
+
+    public void setDispatchThreads(String value) {
+        setProperty(DISPATCH_THREADS, value, DEFAULT_DISPATCH_THREADS_STRING);
+    }
+
+    /**
+     * The threads of a shared dispatch executor serve the consumers of all connections, so a consumer
+     * blocking its dispatch thread holds up the others. Consumers bound their unacknowledged deliveries
+     * with a prefetch count when the executor is shared, which auto ack cannot do.
+     *
+     * @return the number of threads of the shared dispatch executor, 0 for the client default per connection
+     */
+    protected int getDispatchThreadsAsInt() {
+        return Math.max(0, getPropertyAsInt(DISPATCH_THREADS, DEFAULT_DISPATCH_THREADS));
+    }
+
+    /**
+     * @return true if deliveries are dispatched by a fixed number of platform threads shared by all connections
+     */
+    protected boolean isDispatchPoolShared() {
+        return getDispatchThreadsAsInt() > 0 && !(getVirtualThreads() && DispatchExecutors.VIRTUAL_THREADS_SUPPORTED);
+    }
+
+    public boolean getVirtualThreads() {
+        return getPropertyAsBoolean(VIRTUAL_THREADS, DEFAULT_VIRTUAL_THREADS);
+    }
+
+    public void setVirtualThreads(Boolean virtualThreads) {
+        setProperty(VIRTUAL_THREADS, virtualThreads);
+    }
+
+    public boolean getAutomaticRecovery() {
+        return getPropertyAsBoolean(AUTOMATIC_RECOVERY, DEFAULT_AUTOMATIC_RECOVERY);
+    }
+
+    public void setAutomaticRecovery(Boolean automaticRecovery) {
+        setProperty(AUTOMATIC_RECOVERY, automaticRecovery);
+    }
+
+    public String getRecoveryInterval() {
+        return getPropertyAsString(RECOVERY_INTERVAL, DEFAULT_RECOVERY_INTERVAL_STRING);
+    }
+
+    public void setRecoveryInterval(String value) {
+        setProperty(RECOVERY_INTERVAL, value, DEFAULT_RECOVERY_INTERVAL_STRING);
+    }
+
+    protected int getRecoveryIntervalAsInt() {
+        int interval = getPropertyAsInt(RECOVERY_INTERVAL, DEFAULT_RECOVERY_INTERVAL);
+        return interval > 0 ? interval : DEFAULT_RECOVERY_INTERVAL;
+    }
+
     public String getUsername() {
         return getPropertyAsString(USERNAME);
     }
@@ -400,6 +853,95 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
         setProperty(HEARTBEAT, value);
     }
 
+    /**
+     * @return whether per-message latencies are recorded and reported as percentiles
+     */
+    public boolean getLatencyPercentiles() {
+        return getPropertyAsBoolean(LATENCY_PERCENTILES, DEFAULT_LATENCY_PERCENTILES);
+    }
+
+    public void setLatencyPercentiles(Boolean enabled) {
+        setProperty(LATENCY_PERCENTILES, enabled);
+    }
+
+    /**
+     * @return the max number of connections shared by all threads with the same connection settings
+     */
+    public String getSharedConnections() {
+        return getPropertyAsString(SHARED_CONNECTIONS, DEFAULT_SHARED_CONNECTIONS_STRING);
+    }
+
+    public void setSharedConnections(String value) {
+        setProperty(SHARED_CONNECTIONS, value);
+    }
+
+    public int getSharedConnectionsAsInt() {
+        return Math.max(0, getPropertyAsInt(SHARED_CONNECTIONS, DEFAULT_SHARED_CONNECTIONS));
+    }
+
+    protected boolean isConnectionShared() {
+        return getSharedConnectionsAsInt() > 0;
+    }
+
+    /**
+     * @return whether queues, exchanges and bindings are declared only once per test run, by the first thread
+     */
+    public boolean getDeclareOnce() {
+        return getPropertyAsBoolean(DECLARE_ONCE, DEFAULT_DECLARE_ONCE);
+    }
+
+    public void setDeclareOnce(Boolean declareOnce) {
+        setProperty(DECLARE_ONCE, declareOnce);
+    }
+
+    /**
+     * @return whether the connection and channel are opened when the thread starts, instead of by the first sample
+     */
+    public boolean getEagerConnect() {
+        return getPropertyAsBoolean(EAGER_CONNECT, DEFAULT_EAGER_CONNECT);
+    }
+
+    public void setEagerConnect(Boolean eager) {
+        setProperty(EAGER_CONNECT, eager);
+    }
+
+    public String getConnectParallelism() {
+        return getPropertyAsString(CONNECT_PARALLELISM, DEFAULT_CONNECT_PARALLELISM_STRING);
+    }
+
+    public void setConnectParallelism(String parallelism) {
+        setProperty(CONNECT_PARALLELISM, parallelism);
+    }
+
+    /**
+     * @return the max number of threads connecting at the same time with eager connect, 0 for no limit
+     */
+    public int getConnectParallelismAsInt() {
+        return Math.max(0, getPropertyAsInt(CONNECT_PARALLELISM, DEFAULT_CONNECT_PARALLELISM));
+    }
+
+    /**
+     * @return how connections are distributed across the hosts, one of {@link #HOST_DISTRIBUTIONS}
+     */
+    public String getHostDistribution() {
+        return getPropertyAsString(HOST_DISTRIBUTION, DEFAULT_HOST_DISTRIBUTION);
+    }
+
+    public void setHostDistribution(String distribution) {
+        setProperty(HOST_DISTRIBUTION, distribution);
+    }
+
+    /**
+     * @return the comma-separated weights of the hosts for the weighted distribution
+     */
+    public String getHostWeights() {
+        return getPropertyAsString(HOST_WEIGHTS, DEFAULT_HOST_WEIGHTS);
+    }
+
+    public void setHostWeights(String weights) {
+        setProperty(HOST_WEIGHTS, weights);
+    }
+
     public int getHeartbeatAsInt() {
         int hb = getPropertyAsInt(HEARTBEAT);
 
@@ -479,6 +1021,17 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
     }
 
     protected void cleanup() {
+        if (isConnectionShared()) {
+            // the pool closes the connection once its last channel is released
+            Channel channel = getChannel();
+
+            if (channel != null) {
+                ConnectionPool.getInstance().releaseChannel(channel);
+            }
+
+            return;
+        }
+
         try {
             // getChannel().close();   // closing the connection will close the channel if it's still open
             if (connection != null && connection.isOpen()) {
@@ -502,46 +1055,139 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
     @Override
     public void threadStarted() {
         log.info("AMQPSampler.threadStarted called");
+
+        if (getEagerConnect()) {
+            eagerConnect();
+        }
     }
 
-    protected Channel createChannel() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
-         log.info("Creating channel {}:{}", getVirtualHost(), getPortAsInt());
+    /**
+     * Open the connection and channel of the thread before its first sample, with at most
+     * {@link #getConnectParallelismAsInt()} threads connecting at the same time.
+     * The outcome is reported as a sub-result of the first sample.
+     */
+    private void eagerConnect() {
+        int parallelism = getConnectParallelismAsInt();
+        Semaphore permits = parallelism > 0
+                ? CONNECT_PERMITS.computeIfAbsent(parallelism, Semaphore::new)
+                : null;
+
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();     // re-interrupt the current thread
+                log.warn("Interrupted while waiting to connect", e);
+                return;
+            }
+        }
 
-         if (connection == null || !connection.isOpen()) {
-            factory.setConnectionTimeout(getTimeoutAsInt());
-            factory.setVirtualHost(getVirtualHost());
-            factory.setUsername(getUsername());
-            factory.setPassword(getPassword());
-            factory.setRequestedHeartbeat(getHeartbeatAsInt());
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(getName() + CONNECT_LABEL_SUFFIX);
+        result.setSuccessful(false);
+        result.sampleStart();
 
-            if (getConnectionSSL()) {
-                factory.useSslProtocol(DEFAULT_SSL_PROTOCOL);
+        try {
+            warmUp();
+
+            if (getChannel() != null && getChannel().isOpen()) {
+                result.setResponseCodeOK();
+                result.setResponseMessage("Connected to " + HostDistribution.nodeOf(getChannel().getConnection()));
+                result.setSuccessful(true);
+            } else {
+                result.setResponseMessage("Failed to open channel");
             }
+        } catch (Exception e) {
+            log.warn("Failed to connect before the first sample", e);
+            result.setResponseMessage(e.toString());
+        } finally {
+            result.sampleEnd();
 
-            log.info("RabbitMQ ConnectionFactory using:"
-                    + "\n\t virtual host: {}"
-                    + "\n\t host: {}"
-                    + "\n\t port: {}"
-                    + "\n\t username: {}"
-                    + "\n\t password: {}"
-                    + "\n\t timeout: {}"
-                    + "\n\t heartbeat: {}"
-                    + "\nin {}",
-                    getVirtualHost(), getHost(), getPort(), getUsername(), getPassword(), getTimeout(),
-                    getHeartbeatAsInt(), this);
-
-            String[] hosts = getHost().split(",");
-            Address[] addresses = new Address[hosts.length];
-
-            for (int i = 0; i < hosts.length; i++) {
-                addresses[i] = new Address(hosts[i], getPortAsInt());
+            if (permits != null) {
+                permits.release();
             }
+        }
 
-            if (log.isDebugEnabled()) {
-                log.debug("Using hosts: {} addresses: {}", Arrays.toString(hosts), Arrays.toString(addresses));
-            }
+        applyConnectTime(result);
+        warmUpResult = result;
+    }
+
+    /**
+     * Set up everything needed by the first sample, called by {@link #threadStarted()} with eager connect.
+     */
+    protected void warmUp() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+        initChannel();
+    }
+
+    /**
+     * Attach the outcome of the eager connect to the first sample of the thread, as a sub-result.
+     *
+     * @param result the sample result
+     */
+    protected void applyWarmUpResult(SampleResult result) {
+        if (warmUpResult != null) {
+            result.addRawSubResult(warmUpResult);
+            warmUpResult = null;
+        }
+    }
+
+    /**
+     * Attach the connection outages recovered since the previous sample, as sub-results.
+     *
+     * @param result the sample result
+     */
+    protected void applyRecoveryResults(SampleResult result) {
+        SampleResult recovery;
+
+        while ((recovery = recoveryResults.poll()) != null) {
+            result.addRawSubResult(recovery);
+        }
+    }
+
+    @Override
+    public void testStarted() {
+        // topology declared by a previous run may have been deleted since
+        TopologyRegistry.getInstance().clear();
+        // key and trust stores may have been replaced since
+        SslContextCache.clear();
+        NioTransport.clear();
+        // payload files may have been edited since
+        MessagePayload.clear();
+        GeneratedPayload.clearRings();
+        // rate profiles start over with every test
+        RateLimiter.clear();
+        ArrivalSchedule.clear();
+    }
+
+    @Override
+    public void testStarted(String host) {
+        testStarted();
+    }
+
+    @Override
+    public void testEnded() {
+        // Do nothing
+    }
+
+    @Override
+    public void testEnded(String host) {
+        testEnded();
+    }
+
+    protected Channel createChannel() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+         log.info("Creating channel {}:{}", getVirtualHost(), getPortAsInt());
 
-            connection = factory.newConnection(addresses);
+         if (isConnectionShared()) {
+             return ConnectionPool.getInstance().createChannel(getConnectionKey(), getSharedConnectionsAsInt(), this::newConnection);
+         }
+
+         if (connection != null && RecoveryMonitor.isRecovering(connection)) {
+             throw new IOException("Connection to " + HostDistribution.nodeOf(connection)
+                     + " is recovering: " + connection.getCloseReason());
+         }
+
+         if (connection == null || !connection.isOpen()) {
+            connection = newConnection();
          }
 
          Channel channel = connection.createChannel();
@@ -553,6 +1199,150 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
          return channel;
     }
 
+    /**
+     * Close a channel opened by {@link #createChannel()}.
+     * Channels of shared connections are given back to the pool.
+     *
+     * @param channel the channel to close
+     */
+    protected void releaseChannel(Channel channel) {
+        if (isConnectionShared()) {
+            ConnectionPool.getInstance().releaseChannel(channel);
+            return;
+        }
+
+        if (channel.isOpen()) {
+            try {
+                channel.close();
+            } catch (IOException | AlreadyClosedException e) {
+                log.debug("Failed to close channel {}", channel.getChannelNumber(), e);
+            } catch (TimeoutException e) {
+                log.error("Timeout Exception: cannot close channel", e);
+            }
+        }
+    }
+
+    /**
+     * @return the key of the connection pool group, threads with equal keys may share connections
+     */
+    protected String getConnectionKey() {
+        return getHost() + '|' + getPortAsInt() + '|' + getVirtualHost() + '|' + getUsername()
+                + '|' + Integer.toHexString(StringUtils.defaultString(getPassword()).hashCode())
+                + '|' + getConnectionSSL() + '|' + getSslProtocols() + '|' + getSslCipherSuites()
+                + '|' + getSslKeyStore() + '|' + getSslTrustStore() + '|' + getHeartbeatAsInt()
+                + '|' + getHostDistribution() + '|' + getHostWeights()
+                + '|' + getUseNio() + '|' + getNioThreadsAsInt()
+                + '|' + getNioReadBufferSizeAsInt() + '|' + getNioWriteBufferSizeAsInt()
+                + '|' + getDispatchThreadsAsInt() + '|' + getVirtualThreads()
+                + '|' + getAutomaticRecovery() + '|' + getRecoveryIntervalAsInt();
+    }
+
+    /**
+     * @return the key of the shared NIO transport, covering the settings the frame handler factory is created with
+     */
+    private String getNioKey() {
+        return getTimeoutAsInt() + "|" + getNioThreadsAsInt()
+                + '|' + getNioReadBufferSizeAsInt() + '|' + getNioWriteBufferSizeAsInt()
+                + '|' + getConnectionSSL() + '|' + getSslProtocols() + '|' + getSslCipherSuites()
+                + '|' + getSslKeyStore() + '|' + getSslTrustStore();
+    }
+
+    protected Connection newConnection() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+        factory.setConnectionTimeout(getTimeoutAsInt());
+        factory.setVirtualHost(getVirtualHost());
+        factory.setUsername(getUsername());
+        factory.setPassword(getPassword());
+        factory.setRequestedHeartbeat(getHeartbeatAsInt());
+
+        // the client recovers connections by default, the samplers only if asked to
+        factory.setAutomaticRecoveryEnabled(getAutomaticRecovery());
+        factory.setTopologyRecoveryEnabled(getAutomaticRecovery());
+        factory.setNetworkRecoveryInterval(getRecoveryIntervalAsInt());
+
+        // null restores the default consumer work pool per connection
+        factory.setSharedExecutor(DispatchExecutors.get(getDispatchThreadsAsInt(), getVirtualThreads()));
+
+        if (getUseNio()) {
+            NioParams nioParams = NioTransport.params(getNioThreadsAsInt(),
+                    getNioReadBufferSizeAsInt(), getNioWriteBufferSizeAsInt());
+
+            if (getConnectionSSL()) {
+                nioParams.setSslEngineConfigurator(SslContextCache.restrictEngine(getSslProtocols(), getSslCipherSuites()));
+            }
+
+            factory.setNioParams(nioParams);
+            factory.useNio();
+        } else {
+            factory.useBlockingIo();
+        }
+
+        if (getConnectionSSL()) {
+            useSsl();
+        }
+
+        log.info("RabbitMQ ConnectionFactory using:"
+                + "\n\t virtual host: {}"
+                + "\n\t host: {}"
+                + "\n\t port: {}"
+                + "\n\t username: {}"
+                + "\n\t password: {}"
+                + "\n\t timeout: {}"
+                + "\n\t heartbeat: {}"
+                + "\nin {}",
+                getVirtualHost(), getHost(), getPort(), getUsername(), getPassword(), getTimeout(),
+                getHeartbeatAsInt(), this);
+
+        String[] hosts = getHost().split(",");
+        Address[] addresses = new Address[hosts.length];
+
+        for (int i = 0; i < hosts.length; i++) {
+            addresses[i] = new Address(hosts[i].trim(), getPortAsInt());
+        }
+
+        // the preferred node comes first, the others are kept for failover
+        addresses = HostDistribution.order(addresses, getHostDistribution(),
+                HostDistribution.parseWeights(getHostWeights(), addresses.length),
+                JMeterContextService.getContext().getThreadNum());
+
+        if (log.isDebugEnabled()) {
+            log.debug("Using hosts: {} addresses: {}", Arrays.toString(hosts), Arrays.toString(addresses));
+        }
+
+        long start = System.nanoTime();
+        Connection opened = factory.newConnection(addresses);
+        connectNanos += System.nanoTime() - start;
+
+        log.info("Connected to node {}", HostDistribution.register(opened));
+        BlockedState.register(opened);
+
+        if (getAutomaticRecovery()) {
+            RecoveryMonitor.attach(opened, getName(), getRecoveryIntervalAsInt(), recoveryResults);
+        }
+
+        return opened;
+    }
+
+    /**
+     * Use the SSL context shared by all threads with the same stores, so TLS sessions are resumed
+     * across connections instead of each thread building its own context.
+     */
+    private void useSsl() throws IOException, NoSuchAlgorithmException, KeyManagementException {
+        try {
+            factory.useSslProtocol(SslContextCache.get(DEFAULT_SSL_PROTOCOL, getSslKeyStore(), getSslKeyStorePassword(),
+                    getSslTrustStore(), getSslTrustStorePassword()));
+        } catch (NoSuchAlgorithmException | KeyManagementException e) {
+            throw e;
+        } catch (GeneralSecurityException e) {
+            throw new KeyManagementException("Failed to load SSL key or trust store", e);
+        }
+
+        SocketConfigurator restriction = SslContextCache.restrict(getSslProtocols(), getSslCipherSuites());
+
+        factory.setSocketConfigurator(restriction != null
+                ? SocketConfigurators.defaultConfigurator().andThen(restriction)
+                : SocketConfigurators.defaultConfigurator());
+    }
+
     protected void deleteQueue() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
         // use a different channel since channel closes on exception.
         Channel channel = createChannel();
@@ -564,13 +1354,7 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
             log.debug(ex.toString(), ex);
             // ignore it
         } finally {
-            if (channel.isOpen()) {
-                try {
-                    channel.close();
-                } catch (TimeoutException e) {
-                    log.error("Timeout Exception: cannot close channel", e);
-                }
-            }
+            releaseChannel(channel);
         }
     }
 
@@ -585,13 +1369,7 @@ public abstract class AMQPSampler extends AbstractSampler implements ThreadListe
             log.warn(ex.toString(), ex);
             // ignore it
         } finally {
-            if (channel.isOpen()) {
-                try {
-                    channel.close();
-                } catch (TimeoutException e) {
-                    log.error("Timeout Exception: cannot close channel", e);
-                }
-            }
+            releaseChannel(channel);
         }
     }
 }
@@ -0,0 +1,110 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.Channel;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acknowledges the deliveries of a channel in batches, with a single {@code basic.ack}
+ * with the {@code multiple} flag set for every batch.
+ *
+ * <p>A batch is acknowledged once it holds a number of deliveries, or once its oldest
+ * delivery has been waiting for a time, whichever comes first. Only used by the sampler
+ * thread, and bound to a single channel, as delivery tags are scoped to the channel.
+ */
+final class AckBatcher {
+
+    private final Channel channel;
+    private final int batchSize;
+    private final long timeoutNanos;    // 0 for no time limit
+
+    private long lastTag;
+    private int pending;
+    private long firstPendingTime;
+    private int sent;
+
+    /**
+     * @param channel the channel the deliveries were received on
+     * @param batchSize the max number of deliveries acknowledged at once, 1 to acknowledge every delivery
+     * @param timeout the max time a delivery waits for its acknowledgement in milliseconds, 0 for no limit
+     */
+    AckBatcher(Channel channel, int batchSize, int timeout) {
+        this.channel = channel;
+        this.batchSize = Math.max(1, batchSize);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeout));
+    }
+
+    /**
+     * Add a delivery to the current batch, and acknowledge the batch if it is complete.
+     *
+     * @param deliveryTag the tag of the delivery
+     * @throws IOException if the acknowledgement failed
+     */
+    void ack(long deliveryTag) throws IOException {
+        if (pending == 0) {
+            firstPendingTime = System.nanoTime();
+        }
+
+        lastTag = deliveryTag;
+        pending++;
+
+        if (pending >= batchSize || isDue()) {
+            flush();
+        }
+    }
+
+    /**
+     * Acknowledge the current batch if its oldest delivery has waited for the timeout.
+     *
+     * @throws IOException if the acknowledgement failed
+     */
+    void flushIfDue() throws IOException {
+        if (isDue()) {
+            flush();
+        }
+    }
+
+    /**
+     * Acknowledge all pending deliveries.
+     *
+     * @throws IOException if the acknowledgement failed
+     */
+    void flush() throws IOException {
+        if (pending > 0) {
+            // reset first, so a failed ack is not attempted again on a broken channel
+            pending = 0;
+            channel.basicAck(lastTag, batchSize > 1);
+            sent++;
+        }
+    }
+
+    /**
+     * @return the time until the current batch has to be acknowledged in nanoseconds,
+     *      or {@link Long#MAX_VALUE} if there is no time limit or no pending delivery
+     */
+    long getNanosUntilDue() {
+        if (pending == 0 || timeoutNanos == 0) {
+            return Long.MAX_VALUE;
+        }
+
+        return Math.max(0, firstPendingTime + timeoutNanos - System.nanoTime());
+    }
+
+    /**
+     * @return the number of basic.ack methods sent since the last call
+     */
+    int getSentAndReset() {
+        int count = sent;
+        sent = 0;
+        return count;
+    }
+
+    int getPending() {
+        return pending;
+    }
+
+    private boolean isDue() {
+        return pending > 0 && timeoutNanos > 0 && System.nanoTime() - firstPendingTime >= timeoutNanos;
+    }
+}
@@ -0,0 +1,79 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intended arrival times of the messages published by all threads of an open model publisher element.
+ *
+ * <p>Arrivals are spaced by the rate of the {@link RateProfile} at the time, and handed out one at a time,
+ * so the workers of all threads of the element together publish at the rate of the profile.
+ *
+ * <p>The profile starts with the first thread starting to publish.
+ */
+final class ArrivalSchedule {
+
+    private static final ConcurrentMap<String, ArrivalSchedule> SCHEDULES = new ConcurrentHashMap<>();
+
+    // while the target rate is 0, the schedule moves on by this step
+    private static final long IDLE_STEP_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final RateProfile profile;
+    private final long startNanos = System.nanoTime();
+
+    // guarded by this
+    private double nextArrivalNanos = startNanos;
+
+    private ArrivalSchedule(RateProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * @param name the name of the publisher element, threads of elements with the same name share the schedule
+     * @param profile the arrival rate
+     * @return the schedule shared by the threads of the element
+     */
+    static ArrivalSchedule shared(String name, RateProfile profile) {
+        return SCHEDULES.computeIfAbsent(name + '|' + profile, k -> new ArrivalSchedule(profile));
+    }
+
+    /**
+     * Forget all schedules, so the profiles start over with the next test.
+     */
+    static void clear() {
+        SCHEDULES.clear();
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} the next message is due, the schedule is advanced by one message
+     */
+    synchronized long nextArrival() {
+        double rate;
+
+        while ((rate = profile.rateAt((long) nextArrivalNanos - startNanos)) <= 0) {
+            nextArrivalNanos += IDLE_STEP_NANOS;
+        }
+
+        long arrival = (long) nextArrivalNanos;
+        nextArrivalNanos += 1e9 / rate;
+
+        return arrival;
+    }
+
+    /**
+     * @return the time since the schedule started, in nanoseconds
+     */
+    long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @param fromElapsedNanos the start of the interval, see {@link #getElapsedNanos()}
+     * @param toElapsedNanos the end of the interval
+     * @return the average arrival rate of the interval, in messages per second
+     */
+    double getTargetRate(long fromElapsedNanos, long toElapsedNanos) {
+        return profile.averageRate(fromElapsedNanos, toElapsedNanos);
+    }
+}
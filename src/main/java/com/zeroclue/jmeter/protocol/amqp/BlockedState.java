@@ -0,0 +1,130 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Flow control state of a connection, blocked by the broker while a memory or disk alarm is in effect.
+ *
+ * <p>The time spent blocked is accumulated over the lifetime of the connection, so samplers can
+ * tell how much of a sample was spent blocked from the difference between two readings.
+ * The state of every connection opened by the samplers is registered JVM-wide, so threads sharing
+ * a pooled connection see the same state.
+ */
+final class BlockedState implements BlockedListener, ShutdownListener {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockedState.class);
+
+    private static final ConcurrentMap<Connection, BlockedState> STATES = new ConcurrentHashMap<>();
+
+    private final Connection connection;
+
+    private volatile String reason;     // null while not blocked
+    private volatile String lastReason;
+
+    // guarded by this
+    private long blockedSinceNanos;
+    private long blockedNanos;
+
+    private BlockedState(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Track the flow control state of a newly opened connection, until it is closed.
+     *
+     * @param connection the opened connection
+     */
+    static void register(Connection connection) {
+        BlockedState state = new BlockedState(connection);
+        STATES.put(connection, state);
+        connection.addBlockedListener(state);
+        connection.addShutdownListener(state);
+    }
+
+    /**
+     * @param connection a connection opened by the samplers
+     * @return the flow control state of the connection, or null if it is not tracked
+     */
+    static BlockedState of(Connection connection) {
+        return STATES.get(connection);
+    }
+
+    /**
+     * @return true while the broker blocks the connection
+     */
+    boolean isBlocked() {
+        return reason != null;
+    }
+
+    /**
+     * @return the reason given by the broker for the current or last block, null if never blocked
+     */
+    String getReason() {
+        return lastReason;
+    }
+
+    /**
+     * @return the time spent blocked since the connection was opened, including the current block, in nanoseconds
+     */
+    synchronized long getBlockedNanos() {
+        return reason != null ? blockedNanos + System.nanoTime() - blockedSinceNanos : blockedNanos;
+    }
+
+    /**
+     * Wait until the broker unblocks the connection, or the connection is closed.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    synchronized void awaitUnblocked() throws InterruptedException {
+        while (reason != null) {
+            wait();
+        }
+    }
+
+    @Override
+    public synchronized void handleBlocked(String reason) {
+        if (this.reason == null) {
+            blockedSinceNanos = System.nanoTime();
+        }
+
+        this.reason = reason;
+        this.lastReason = reason;
+
+        log.warn("Connection to {} blocked by the broker: {}", HostDistribution.nodeOf(connection), reason);
+    }
+
+    @Override
+    public void handleUnblocked() {
+        unblock();
+
+        log.info("Connection to {} unblocked by the broker", HostDistribution.nodeOf(connection));
+    }
+
+    @Override
+    public void shutdownCompleted(ShutdownSignalException cause) {
+        // a closed connection is not blocked any more, and a recovered one starts unblocked
+        unblock();
+
+        if (!connection.isOpen()) {
+            STATES.remove(connection, this);
+        }
+    }
+
+    private synchronized void unblock() {
+        if (reason != null) {
+            blockedNanos += System.nanoTime() - blockedSinceNanos;
+            reason = null;
+        }
+
+        notifyAll();
+    }
+}
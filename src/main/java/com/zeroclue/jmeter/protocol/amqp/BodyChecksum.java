@@ -0,0 +1,51 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.lang.reflect.Constructor;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+
+/**
+ * Checksum of message bodies, recorded instead of the body by the {@link AMQPConsumer}.
+ *
+ * <p>Uses the hardware accelerated CRC32C on Java 9+, and falls back to CRC32 on Java 8.
+ */
+final class BodyChecksum {
+
+    private static final Constructor<? extends Checksum> CRC32C = loadCrc32c();
+
+    static final String ALGORITHM = CRC32C != null ? "CRC32C" : "CRC32";
+
+    private BodyChecksum() {
+    }
+
+    /**
+     * @param body the message body
+     * @return the checksum of the body, as 8 hex digits
+     */
+    static String of(byte[] body) {
+        Checksum checksum = create();
+        checksum.update(body, 0, body.length);
+
+        return String.format("%08x", checksum.getValue());
+    }
+
+    private static Checksum create() {
+        if (CRC32C == null) {
+            return new CRC32();
+        }
+
+        try {
+            return CRC32C.newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create CRC32C checksum", e);
+        }
+    }
+
+    private static Constructor<? extends Checksum> loadCrc32c() {
+        try {
+            return Class.forName("java.util.zip.CRC32C").asSubclass(Checksum.class).getConstructor();
+        } catch (ReflectiveOperationException e) {
+            return null;       // Java 8
+        }
+    }
+}
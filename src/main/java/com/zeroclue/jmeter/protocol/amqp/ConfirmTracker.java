@@ -0,0 +1,298 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Tracks outstanding publisher confirms of a channel in confirm mode.
+ *
+ * <p>The publishing thread registers every sequence number before publishing,
+ * while acks and nacks are delivered asynchronously by the connection thread.
+ * The number of unconfirmed messages is bounded by the in-flight window,
+ * so the publisher blocks once the window is exhausted.
+ */
+class ConfirmTracker implements ConfirmListener {
+
+    private final Channel channel;
+    private final Semaphore window;     // null if the window is unbounded
+    private final ConcurrentNavigableMap<Long, Long> outstanding = new ConcurrentSkipListMap<>();
+    private final Object confirmed = new Object();
+
+    // guarded by confirmed, so a sample reads acks, nacks and latencies of the same set of confirms
+    private long acks;
+    private long nacks;
+    private long latencyNanos;
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+    private final AtomicLong firstConfirmTime = new AtomicLong();
+    private final Recorder latencies;   // null if per-message latencies are not recorded
+
+    ConfirmTracker(Channel channel, int windowSize, boolean recordLatencies) {
+        this.channel = channel;
+        this.window = windowSize > 0 ? new Semaphore(windowSize) : null;
+        this.latencies = recordLatencies ? new Recorder(3) : null;
+    }
+
+    /**
+     * Reserve a slot in the in-flight window for the next message published on the channel.
+     *
+     * @param timeout max time in milliseconds to wait for a free slot
+     * @return the sequence number of the message
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     * @throws TimeoutException if no slot has been released within the timeout
+     */
+    long register(long timeout) throws InterruptedException, TimeoutException {
+        return register(timeout, 0);
+    }
+
+    /**
+     * Reserve a slot in the in-flight window for the next message published on the channel,
+     * measuring its confirm latency from the given time instead of from the time it was registered.
+     *
+     * @param timeout max time in milliseconds to wait for a free slot
+     * @param sendNanos the {@link System#nanoTime()} the message was due to be published, 0 for now
+     * @return the sequence number of the message
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     * @throws TimeoutException if no slot has been released within the timeout
+     */
+    long register(long timeout, long sendNanos) throws InterruptedException, TimeoutException {
+        if (window != null && !window.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("Timed out waiting for publisher confirms, " + outstanding.size() + " unconfirmed");
+        }
+
+        long seqNo = channel.getNextPublishSeqNo();
+        outstanding.put(seqNo, sendNanos != 0 ? sendNanos : System.nanoTime());
+
+        return seqNo;
+    }
+
+    /**
+     * Give back the slot of a registered message which failed to publish, it will never be confirmed.
+     *
+     * @param seqNo the sequence number returned by {@link #register(long, long)}
+     */
+    void unregister(long seqNo) {
+        // a confirm may remove the same message concurrently, only one of them releases its slot
+        if (outstanding.remove(seqNo) == null) {
+            return;
+        }
+
+        if (window != null) {
+            window.release();
+        }
+
+        if (outstanding.isEmpty()) {
+            synchronized (confirmed) {
+                confirmed.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until all registered messages are either acked or nacked by the broker.
+     *
+     * @param timeout max time in milliseconds to wait
+     * @return true if all messages have been confirmed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    boolean awaitConfirms(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        synchronized (confirmed) {
+            while (!outstanding.isEmpty()) {
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(confirmed, remaining);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Forget the messages published before the channel was recovered, they will never be confirmed
+     * as sequence numbers start over on the recovered channel.
+     *
+     * @return the number of messages forgotten
+     */
+    int reset() {
+        int released = 0;
+
+        for (Long seqNo : outstanding.keySet()) {
+            // a confirm may remove the same message concurrently, only one of them releases its slot
+            if (outstanding.remove(seqNo) != null) {
+                released++;
+            }
+        }
+
+        if (window != null && released > 0) {
+            window.release(released);
+        }
+
+        synchronized (confirmed) {
+            confirmed.notifyAll();
+        }
+
+        return released;
+    }
+
+    int getOutstanding() {
+        return outstanding.size();
+    }
+
+    /**
+     * @return the acks, nacks and confirm latencies since the last call, taken together
+     */
+    Confirms getConfirmsAndReset() {
+        synchronized (confirmed) {
+            Confirms snapshot = new Confirms(acks, nacks, latencyNanos, maxLatencyNanos.getAndSet(0));
+            acks = 0;
+            nacks = 0;
+            latencyNanos = 0;
+            return snapshot;
+        }
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} of the first confirm since the last call, 0 if none
+     */
+    long getFirstConfirmTimeAndReset() {
+        return firstConfirmTime.getAndSet(0);
+    }
+
+    /**
+     * @return the per-message confirm latencies in microseconds since the last call,
+     * or null if latencies are not recorded
+     */
+    Histogram getLatencyHistogramAndReset() {
+        return latencies != null ? latencies.getIntervalHistogram() : null;
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        confirm(deliveryTag, multiple, true);
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        confirm(deliveryTag, multiple, false);
+    }
+
+    private void confirm(long deliveryTag, boolean multiple, boolean ack) {
+        long now = System.nanoTime();
+        int released = 0;
+
+        if (multiple) {
+            Iterator<Map.Entry<Long, Long>> it = outstanding.headMap(deliveryTag, true).entrySet().iterator();
+
+            while (it.hasNext()) {
+                record(now - it.next().getValue(), ack);
+                it.remove();
+                released++;
+            }
+        } else {
+            Long published = outstanding.remove(deliveryTag);
+
+            if (published != null) {
+                record(now - published, ack);
+                released++;
+            }
+        }
+
+        if (released > 0) {
+            firstConfirmTime.compareAndSet(0, now);
+        }
+
+        if (window != null && released > 0) {
+            window.release(released);
+        }
+
+        if (outstanding.isEmpty()) {
+            synchronized (confirmed) {
+                confirmed.notifyAll();
+            }
+        }
+    }
+
+    private void record(long latency, boolean ack) {
+        synchronized (confirmed) {
+            if (ack) {
+                acks++;
+            } else {
+                nacks++;
+            }
+
+            latencyNanos += latency;
+            maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        }
+
+        if (latencies != null) {
+            latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(latency));
+        }
+    }
+
+    /**
+     * Acks, nacks and confirm latencies of the confirms received between two samples.
+     */
+    static final class Confirms {
+
+        private final long acks;
+        private final long nacks;
+        private final long latencyNanos;
+        private final long maxLatencyNanos;
+
+        Confirms(long acks, long nacks, long latencyNanos, long maxLatencyNanos) {
+            this.acks = acks;
+            this.nacks = nacks;
+            this.latencyNanos = latencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        long getAcks() {
+            return acks;
+        }
+
+        long getNacks() {
+            return nacks;
+        }
+
+        /**
+         * @return the average confirm latency, in nanoseconds
+         */
+        long getAvgLatencyNanos() {
+            long confirmed = acks + nacks;
+
+            return confirmed > 0 ? latencyNanos / confirmed : 0;
+        }
+
+        /**
+         * @return the max confirm latency, in nanoseconds
+         */
+        long getMaxLatencyNanos() {
+            return maxLatencyNanos;
+        }
+
+        /**
+         * @return the confirms of both snapshots
+         */
+        Confirms plus(Confirms other) {
+            return new Confirms(acks + other.acks, nacks + other.nacks, latencyNanos + other.latencyNanos,
+                    Math.max(maxLatencyNanos, other.maxLatencyNanos));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide pool of AMQP connections shared by sampler threads.
+ *
+ * <p>Connections are grouped by a key identifying the broker endpoint, virtual host,
+ * user and SSL settings. Every thread gets its own channel, opened on the least loaded
+ * connection of its group, so a group never holds more than the requested number of connections.
+ * A connection is closed as soon as its last channel is released.
+ */
+final class ConnectionPool {
+
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private static final ConnectionPool INSTANCE = new ConnectionPool();
+
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Connection, Group> owners = new ConcurrentHashMap<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final AtomicInteger openChannels = new AtomicInteger();
+
+    private ConnectionPool() {
+    }
+
+    static ConnectionPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Opens a new connection for a pool group on demand.
+     */
+    interface ConnectionSupplier {
+        Connection newConnection() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException;
+    }
+
+    /**
+     * Open a channel on one of the shared connections of the group.
+     *
+     * @param key the group key, connections are only shared within the same group
+     * @param maxConnections max number of connections opened for the group
+     * @param supplier opens a new connection when the group is not yet full
+     * @return a new channel
+     */
+    Channel createChannel(String key, int maxConnections, ConnectionSupplier supplier)
+            throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+        Group group = groups.computeIfAbsent(key, k -> new Group(k));
+        return group.createChannel(Math.max(1, maxConnections), supplier);
+    }
+
+    /**
+     * Close the channel and give its slot back to the pool.
+     * Releasing a channel which does not belong to the pool, or was already released, only closes it.
+     *
+     * @param channel the channel to release
+     */
+    void releaseChannel(Channel channel) {
+        Group group = owners.get(channel.getConnection());
+
+        if (group != null) {
+            group.releaseChannel(channel);
+        } else {
+            closeQuietly(channel);
+        }
+    }
+
+    /**
+     * @return the number of open shared connections
+     */
+    int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    /**
+     * @return the number of channels open on shared connections
+     */
+    int getOpenChannels() {
+        return openChannels.get();
+    }
+
+    @Override
+    public String toString() {
+        return getOpenConnections() + " connection(s), " + getOpenChannels() + " channel(s)";
+    }
+
+    private static void closeQuietly(Channel channel) {
+        try {
+            if (channel.isOpen()) {
+                channel.close();
+            }
+        } catch (IOException | TimeoutException | ShutdownSignalException e) {
+            log.debug("Failed to close channel {}", channel.getChannelNumber(), e);
+        }
+    }
+
+    private final class Group {
+
+        private final String key;
+        private final List<PooledConnection> connections = new ArrayList<>();
+
+        Group(String key) {
+            this.key = key;
+        }
+
+        synchronized Channel createChannel(int maxConnections, ConnectionSupplier supplier)
+                throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+            evictClosed();
+
+            PooledConnection target;
+
+            if (connections.size() < maxConnections) {
+                target = new PooledConnection(supplier.newConnection());
+                connections.add(target);
+                owners.put(target.connection, this);
+                openConnections.incrementAndGet();
+                log.info("Opened shared connection {} of {}, pool has {}", connections.size(), maxConnections, ConnectionPool.this);
+            } else {
+                target = null;
+
+                // recovering connections are kept for their channels, but cannot open new ones until recovered
+                for (PooledConnection candidate : connections) {
+                    if (candidate.connection.isOpen()
+                            && (target == null || candidate.channels.size() < target.channels.size())) {
+                        target = candidate;
+                    }
+                }
+
+                if (target == null) {
+                    throw new IOException("All " + connections.size() + " shared connection(s) for " + key
+                            + " are recovering");
+                }
+            }
+
+            Channel channel = target.connection.createChannel();
+
+            if (channel == null) {
+                throw new IOException("No channel available on shared connection " + target.connection);
+            }
+
+            target.channels.add(channel);
+            openChannels.incrementAndGet();
+
+            return channel;
+        }
+
+        synchronized void releaseChannel(Channel channel) {
+            closeQuietly(channel);
+
+            Iterator<PooledConnection> it = connections.iterator();
+
+            while (it.hasNext()) {
+                PooledConnection pooled = it.next();
+
+                if (!pooled.channels.remove(channel)) {
+                    continue;
+                }
+
+                openChannels.decrementAndGet();
+
+                if (pooled.channels.isEmpty()) {
+                    it.remove();
+                    close(pooled);
+                    log.info("Closed idle shared connection, pool has {}", ConnectionPool.this);
+                }
+            }
+        }
+
+        private void evictClosed() {
+            Iterator<PooledConnection> it = connections.iterator();
+
+            while (it.hasNext()) {
+                PooledConnection pooled = it.next();
+
+                // recovering connections re-open their channels by themselves
+                if (!pooled.connection.isOpen() && !RecoveryMonitor.isRecovering(pooled.connection)) {
+                    log.warn("Shared connection for {} closed unexpectedly: {}", key, pooled.connection.getCloseReason());
+                    it.remove();
+                    owners.remove(pooled.connection);
+                    openConnections.decrementAndGet();
+                    openChannels.addAndGet(-pooled.channels.size());
+                }
+            }
+        }
+
+        private void close(PooledConnection pooled) {
+            owners.remove(pooled.connection);
+            openConnections.decrementAndGet();
+
+            try {
+                if (pooled.connection.isOpen()) {
+                    pooled.connection.close();
+                }
+            } catch (IOException | ShutdownSignalException e) {
+                log.debug("Failed to close shared connection", e);
+            }
+        }
+    }
+
+    private static final class PooledConnection {
+
+        private final Connection connection;
+        private final Set<Channel> channels = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+}
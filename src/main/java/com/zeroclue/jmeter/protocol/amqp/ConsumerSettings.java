@@ -0,0 +1,101 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+/**
+ * Immutable, typed snapshot of the {@link AMQPConsumer} settings used on the consume path.
+ *
+ * <p>The snapshot is resolved once and reused for as long as none of its properties
+ * is evaluated per iteration, i.e. contains a variable or a function.
+ */
+final class ConsumerSettings {
+
+    private final String queue;
+    private final int iterations;
+    private final int receiveTimeout;
+    private final boolean readResponse;
+    private final boolean autoAck;
+    private final boolean useTx;
+    private final boolean measureLatency;
+    private final boolean latencyPercentiles;
+    private final boolean pullMode;
+    private final int drainTime;
+    private final int drainMaxCount;
+    private final String responseMode;
+    private final int responseMaxBytes;
+    private final boolean dynamic;
+
+    ConsumerSettings(AMQPConsumer sampler, boolean dynamic) {
+        this.queue = sampler.getQueue();
+        this.iterations = sampler.getIterationsAsInt();
+        this.receiveTimeout = sampler.getReceiveTimeoutAsInt();
+        this.readResponse = sampler.getReadResponseAsBoolean();
+        this.autoAck = sampler.autoAck();
+        this.useTx = sampler.getUseTx();
+        this.measureLatency = sampler.getMeasureLatency();
+        this.latencyPercentiles = sampler.getLatencyPercentiles();
+        this.pullMode = sampler.getPullMode();
+        this.drainTime = sampler.getDrainTimeAsInt();
+        this.drainMaxCount = sampler.getDrainMaxCountAsInt();
+        this.responseMode = sampler.getResponseMode();
+        this.responseMaxBytes = sampler.getResponseMaxBytesAsInt();
+        this.dynamic = dynamic;
+    }
+
+    String getQueue() {
+        return queue;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    int getReceiveTimeout() {
+        return receiveTimeout;
+    }
+
+    boolean isReadResponse() {
+        return readResponse;
+    }
+
+    boolean isAutoAck() {
+        return autoAck;
+    }
+
+    boolean isUseTx() {
+        return useTx;
+    }
+
+    boolean isMeasureLatency() {
+        return measureLatency;
+    }
+
+    boolean isLatencyPercentiles() {
+        return latencyPercentiles;
+    }
+
+    boolean isPullMode() {
+        return pullMode;
+    }
+
+    int getDrainTime() {
+        return drainTime;
+    }
+
+    int getDrainMaxCount() {
+        return drainMaxCount;
+    }
+
+    String getResponseMode() {
+        return responseMode;
+    }
+
+    int getResponseMaxBytes() {
+        return responseMaxBytes;
+    }
+
+    /**
+     * @return true if the snapshot must be resolved again for every sample
+     */
+    boolean isDynamic() {
+        return dynamic;
+    }
+}
@@ -0,0 +1,179 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.Delivery;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free single-producer single-consumer ring buffer handing deliveries over
+ * from the client dispatch thread to the sampler thread.
+ *
+ * <p>The client dispatches the deliveries of a channel one at a time, so there is a single producer,
+ * and the sampler thread is the single consumer. A full buffer blocks the producer instead of
+ * dropping the delivery, which pushes back on the broker through the client. Both sides park
+ * while waiting, and accumulate the time spent blocked.
+ */
+class DeliveryBuffer {
+
+    // bounds a single park, so a blocked producer notices when the buffer is closed
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Delivery[] ring;
+    private final int mask;
+
+    private volatile long head;         // next slot to consume, written by the consumer only
+    private volatile long tail;         // next slot to produce, written by the producer only
+    private volatile Thread waitingConsumer;
+    private volatile Thread waitingProducer;
+    private volatile boolean closed;
+
+    private volatile long producerBlockedNanos;
+    private long consumerBlockedNanos;
+
+    /**
+     * @param capacity the min number of buffered deliveries, rounded up to a power of two
+     */
+    DeliveryBuffer(int capacity) {
+        int size = capacity > 1 ? Integer.highestOneBit(capacity - 1) << 1 : 1;
+        this.ring = new Delivery[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Add a delivery, waiting for a free slot if the buffer is full.
+     * A closed buffer takes no more deliveries, they are left to the caller.
+     *
+     * @param delivery the delivery to add
+     * @return true if the delivery was added, false if the buffer is closed
+     * @throws InterruptedException if interrupted while waiting for a free slot
+     */
+    boolean put(Delivery delivery) throws InterruptedException {
+        if (closed) {
+            return false;
+        }
+
+        long t = tail;
+
+        if (t - head == ring.length) {
+            long start = System.nanoTime();
+            waitingProducer = Thread.currentThread();
+
+            try {
+                while (t - head == ring.length) {
+                    if (closed) {
+                        return false;
+                    }
+
+                    LockSupport.parkNanos(this, MAX_PARK_NANOS);
+
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                waitingProducer = null;
+                producerBlockedNanos += System.nanoTime() - start;
+            }
+        }
+
+        ring[(int) t & mask] = delivery;
+        tail = t + 1;
+
+        Thread consumer = waitingConsumer;
+
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Take the next delivery, waiting for one if the buffer is empty.
+     *
+     * @param timeout max time to wait
+     * @param unit the unit of the timeout
+     * @return the next delivery, or null if none has been added within the timeout
+     * @throws InterruptedException if interrupted while waiting for a delivery
+     */
+    Delivery poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long h = head;
+
+        if (h == tail) {
+            long start = System.nanoTime();
+            long deadline = start + unit.toNanos(timeout);
+            waitingConsumer = Thread.currentThread();
+
+            try {
+                while (h == tail) {
+                    long remaining = deadline - System.nanoTime();
+
+                    if (remaining <= 0) {
+                        return null;
+                    }
+
+                    LockSupport.parkNanos(this, remaining);
+
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            } finally {
+                waitingConsumer = null;
+                consumerBlockedNanos += System.nanoTime() - start;
+            }
+        }
+
+        int slot = (int) h & mask;
+        Delivery delivery = ring[slot];
+        ring[slot] = null;
+        head = h + 1;
+
+        Thread producer = waitingProducer;
+
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+
+        return delivery;
+    }
+
+    /**
+     * Release a blocked producer and refuse further deliveries.
+     */
+    void close() {
+        closed = true;
+
+        Thread producer = waitingProducer;
+
+        if (producer != null) {
+            LockSupport.unpark(producer);
+        }
+    }
+
+    /**
+     * @return the number of buffered deliveries
+     */
+    int size() {
+        return (int) (tail - head);
+    }
+
+    int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * @return the total time the producer waited for a free slot, in nanoseconds
+     */
+    long getProducerBlockedNanos() {
+        return producerBlockedNanos;
+    }
+
+    /**
+     * @return the total time the consumer waited for a delivery, in nanoseconds
+     */
+    long getConsumerBlockedNanos() {
+        return consumerBlockedNanos;
+    }
+}
@@ -0,0 +1,108 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide executors dispatching deliveries to the consumers of all connections.
+ *
+ * <p>By default, the client gives every connection its own consumer work pool of twice the
+ * number of processors, so many consumer connections start far more dispatch threads than
+ * there are cores. A shared executor bounds them independently of the connection count.
+ * The client still dispatches the deliveries of a channel in order, one at a time.
+ */
+final class DispatchExecutors {
+
+    private static final Logger log = LoggerFactory.getLogger(DispatchExecutors.class);
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = loadVirtualThreadExecutorFactory();
+
+    static final boolean VIRTUAL_THREADS_SUPPORTED = NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+
+    private static final ConcurrentMap<Integer, ExecutorService> FIXED = new ConcurrentHashMap<>();
+
+    private static volatile ExecutorService virtual;
+
+    private DispatchExecutors() {
+    }
+
+    /**
+     * @param threads the number of dispatch threads, 0 for the client default per connection
+     * @param virtualThreads whether to dispatch on virtual threads, if the JVM supports them
+     * @return the shared executor, or null to let each connection create its own
+     */
+    static ExecutorService get(int threads, boolean virtualThreads) {
+        if (virtualThreads) {
+            if (VIRTUAL_THREADS_SUPPORTED) {
+                return virtual();
+            }
+
+            log.warn("Virtual threads require Java 21 or later, dispatching on {} platform threads instead",
+                    threads > 0 ? threads : "per connection");
+        }
+
+        if (threads <= 0) {
+            return null;
+        }
+
+        return FIXED.computeIfAbsent(threads, n -> {
+            log.info("Created shared consumer dispatch executor with {} threads", n);
+            return Executors.newFixedThreadPool(n, new DispatchThreadFactory());
+        });
+    }
+
+    private static ExecutorService virtual() {
+        ExecutorService executor = virtual;
+
+        if (executor == null) {
+            synchronized (DispatchExecutors.class) {
+                executor = virtual;
+
+                if (executor == null) {
+                    try {
+                        executor = (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+                    } catch (ReflectiveOperationException e) {
+                        throw new IllegalStateException("Failed to create virtual thread executor", e);
+                    }
+
+                    log.info("Created shared consumer dispatch executor on virtual threads");
+                    virtual = executor;
+                }
+            }
+        }
+
+        return executor;
+    }
+
+    private static Method loadVirtualThreadExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;        // before Java 21
+        }
+    }
+
+    private static final class DispatchThreadFactory implements ThreadFactory {
+
+        private static final AtomicInteger POOLS = new AtomicInteger();
+
+        private final int pool = POOLS.incrementAndGet();
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "amqp-dispatch-" + pool + '-' + count.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
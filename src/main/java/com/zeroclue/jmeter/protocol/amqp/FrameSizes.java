@@ -0,0 +1,161 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.impl.Frame;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Sizes on the wire of the AMQP 0-9-1 frames exchanged by the samplers, used for the byte
+ * accounting of sample results.
+ *
+ * <p>Sizes are computed from the frame layout instead of serializing the frames again.
+ */
+final class FrameSizes {
+
+    // frame type, channel, payload size and frame end octets
+    static final int FRAME_OVERHEAD = 8;
+
+    // class and method ids
+    private static final int METHOD_OVERHEAD = FRAME_OVERHEAD + 4;
+
+    // class id, weight, body size and property flags
+    private static final int CONTENT_HEADER_OVERHEAD = FRAME_OVERHEAD + 14;
+
+    /** basic.ack with delivery tag and multiple flag. */
+    static final int BASIC_ACK = METHOD_OVERHEAD + 9;
+
+    /** basic.get-empty with an empty cluster id. */
+    static final int BASIC_GET_EMPTY = METHOD_OVERHEAD + 1;
+
+    private FrameSizes() {
+    }
+
+    /**
+     * @param contentHeaderSize the size of the content header frame, see {@link #contentHeader}
+     * @return the size of the basic.publish method, content header and body frames of a message
+     */
+    static long publish(String exchange, String routingKey, long contentHeaderSize, int bodySize, int frameMax) {
+        // reserved short, exchange, routing key, mandatory and immediate flags
+        long method = METHOD_OVERHEAD + 2 + shortString(exchange) + shortString(routingKey) + 1;
+
+        return method + contentHeaderSize + bodyOverhead(bodySize, frameMax) + bodySize;
+    }
+
+    /**
+     * @param contentHeaderSize the size of the content header frame, see {@link #contentHeader}
+     * @return the size of the basic.deliver method, content header and body frames of a message, without the body
+     */
+    static long deliver(String consumerTag, Envelope envelope, long contentHeaderSize, int bodySize, int frameMax) {
+        // consumer tag, delivery tag, redelivered flag, exchange, routing key
+        long method = METHOD_OVERHEAD + shortString(consumerTag) + 8 + 1
+            + shortString(envelope.getExchange()) + shortString(envelope.getRoutingKey());
+
+        return method + contentHeaderSize + bodyOverhead(bodySize, frameMax);
+    }
+
+    /**
+     * @param contentHeaderSize the size of the content header frame, see {@link #contentHeader}
+     * @return the size of the basic.get-ok method, content header and body frames of a message, without the body
+     */
+    static long getOk(Envelope envelope, long contentHeaderSize, int bodySize, int frameMax) {
+        // delivery tag, redelivered flag, exchange, routing key, message count
+        long method = METHOD_OVERHEAD + 8 + 1
+            + shortString(envelope.getExchange()) + shortString(envelope.getRoutingKey()) + 4;
+
+        return method + contentHeaderSize + bodyOverhead(bodySize, frameMax);
+    }
+
+    /**
+     * @return the size of a basic.get method
+     */
+    static int basicGet(String queue) {
+        // reserved short, queue, no-ack flag
+        return METHOD_OVERHEAD + 2 + shortString(queue) + 1;
+    }
+
+    /**
+     * @return the size of the content header frame carrying the message properties
+     */
+    static long contentHeader(AMQP.BasicProperties properties) {
+        long size = CONTENT_HEADER_OVERHEAD;
+
+        if (properties == null) {
+            return size;
+        }
+
+        size += optionalShortString(properties.getContentType());
+        size += optionalShortString(properties.getContentEncoding());
+
+        if (properties.getHeaders() != null) {
+            try {
+                size += 4 + Frame.tableSize(properties.getHeaders());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        size += properties.getDeliveryMode() != null ? 1 : 0;
+        size += properties.getPriority() != null ? 1 : 0;
+        size += optionalShortString(properties.getCorrelationId());
+        size += optionalShortString(properties.getReplyTo());
+        size += optionalShortString(properties.getExpiration());
+        size += optionalShortString(properties.getMessageId());
+        size += properties.getTimestamp() != null ? 8 : 0;
+        size += optionalShortString(properties.getType());
+        size += optionalShortString(properties.getUserId());
+        size += optionalShortString(properties.getAppId());
+        size += optionalShortString(properties.getClusterId());
+
+        return size;
+    }
+
+    /**
+     * @param frameMax the negotiated max frame size, 0 if unlimited
+     * @return the overhead of the frames carrying a body
+     */
+    private static long bodyOverhead(int bodySize, int frameMax) {
+        if (bodySize == 0) {
+            return 0;
+        }
+
+        if (frameMax <= FRAME_OVERHEAD) {
+            return FRAME_OVERHEAD;
+        }
+
+        int fragment = frameMax - FRAME_OVERHEAD;
+
+        return (long) FRAME_OVERHEAD * ((bodySize + fragment - 1) / fragment);
+    }
+
+    private static int optionalShortString(String value) {
+        return value != null ? shortString(value) : 0;
+    }
+
+    private static int shortString(String value) {
+        return 1 + (value != null ? utf8Length(value) : 0);
+    }
+
+    private static int utf8Length(String value) {
+        int length = 0;
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,225 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Synthetic message bodies with sizes following a configured distribution.
+ *
+ * <p>The distribution is one of:
+ * <ul>
+ *   <li>a fixed size, e.g. {@code 512};</li>
+ *   <li>a uniform range, e.g. {@code 512-8k};</li>
+ *   <li>weighted buckets, e.g. {@code 512:70,8k:25,1m:5}.</li>
+ * </ul>
+ * Sizes are in bytes, with optional {@code k} and {@code m} binary suffixes.
+ *
+ * <p>All bodies are generated up front into a ring shared by all threads with the same settings,
+ * so publishing does not allocate per message. Bodies of the same size share a single buffer.
+ */
+final class GeneratedPayload extends MessagePayload {
+
+    private static final int RING_SIZE = 1024;
+    private static final int MIN_UNIFORM_SIZES = 16;
+    private static final long MAX_UNIFORM_BYTES = 64L * 1024 * 1024;
+
+    // a small alphabet gives roughly 2:1 compression with the usual codecs
+    private static final byte[] COMPRESSIBLE_ALPHABET = "abcdefghijklmnop".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ConcurrentMap<String, byte[][]> RINGS = new ConcurrentHashMap<>();
+
+    private final byte[][] ring;
+    private final String description;
+    private int index;      // each thread has its own payload instance
+
+    GeneratedPayload(String sizes, String fill) {
+        String key = sizes.trim() + '|' + fill;
+
+        this.ring = RINGS.computeIfAbsent(key, k -> createRing(sizes.trim(), fill));
+        this.description = "Generated " + sizes.trim() + " (" + fill + ")";
+        // start threads at different ring positions, so they do not publish in lockstep
+        this.index = ThreadLocalRandom.current().nextInt(ring.length);
+    }
+
+    /**
+     * Forget the generated rings, so the memory of the bodies of earlier tests is released.
+     */
+    static void clearRings() {
+        RINGS.clear();
+    }
+
+    @Override
+    byte[] next() {
+        byte[] body = ring[index];
+        index = (index + 1) % ring.length;
+
+        return body;
+    }
+
+    @Override
+    String describe() {
+        return description;
+    }
+
+    private static byte[][] createRing(String sizes, String fill) {
+        if (sizes.isEmpty()) {
+            throw new IllegalArgumentException("Payload size distribution is empty");
+        }
+
+        Random random = new Random(sizes.hashCode());
+        int[] ringSizes;
+
+        if (sizes.contains(":")) {
+            ringSizes = weightedSizes(sizes);
+        } else if (sizes.indexOf('-') > 0) {
+            ringSizes = uniformSizes(sizes, random);
+        } else {
+            ringSizes = new int[] {parseSize(sizes)};
+        }
+
+        // shuffle, so that buckets are interleaved instead of published in runs
+        for (int i = ringSizes.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = ringSizes[i];
+            ringSizes[i] = ringSizes[j];
+            ringSizes[j] = tmp;
+        }
+
+        Map<Integer, byte[]> buffers = new HashMap<>();
+        byte[][] ring = new byte[ringSizes.length][];
+
+        for (int i = 0; i < ringSizes.length; i++) {
+            ring[i] = buffers.computeIfAbsent(ringSizes[i], size -> fill(size, fill, random));
+        }
+
+        return ring;
+    }
+
+    private static int[] weightedSizes(String spec) {
+        List<int[]> buckets = new ArrayList<>();
+        long totalWeight = 0;
+        int weighted = 0;
+
+        for (String bucket : spec.split(",")) {
+            String[] parts = bucket.split(":");
+
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid payload size bucket '" + bucket + "', expected size:weight");
+            }
+
+            int weight = Integer.parseInt(parts[1].trim());
+
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative payload size weight in '" + bucket + "'");
+            }
+
+            buckets.add(new int[] {parseSize(parts[0]), weight});
+            totalWeight += weight;
+
+            if (weight > 0) {
+                weighted++;
+            }
+        }
+
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("Payload size weights must not all be zero");
+        }
+
+        if (weighted > RING_SIZE) {
+            throw new IllegalArgumentException("At most " + RING_SIZE + " payload size buckets can have a weight");
+        }
+
+        // every bucket with a weight gets a slot, however small its share, the others are shared by weight
+        int shared = RING_SIZE - weighted;
+        int[] sizes = new int[RING_SIZE];
+        int slot = 0;
+        int reserved = 0;
+        long cumulative = 0;
+
+        for (int[] bucket : buckets) {
+            cumulative += bucket[1];
+
+            if (bucket[1] > 0) {
+                reserved++;
+            }
+
+            int end = reserved + (int) (cumulative * shared / totalWeight);
+
+            while (slot < end) {
+                sizes[slot++] = bucket[0];
+            }
+        }
+
+        return sizes;
+    }
+
+    private static int[] uniformSizes(String spec, Random random) {
+        int separator = spec.indexOf('-');
+        int min = parseSize(spec.substring(0, separator));
+        int max = parseSize(spec.substring(separator + 1));
+
+        if (max < min) {
+            throw new IllegalArgumentException("Invalid payload size range '" + spec + "'");
+        }
+
+        // bound the memory held by the ring, as every slot has a distinct size
+        long average = Math.max(1, ((long) min + max) / 2);
+        int count = (int) Math.max(MIN_UNIFORM_SIZES, Math.min(RING_SIZE, MAX_UNIFORM_BYTES / average));
+        int[] sizes = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            sizes[i] = min + random.nextInt(max - min + 1);
+        }
+
+        return sizes;
+    }
+
+    private static byte[] fill(int size, String fill, Random random) {
+        byte[] body = new byte[size];
+
+        if (AMQPPublisher.PAYLOAD_FILL_RANDOM.equals(fill)) {
+            random.nextBytes(body);
+        } else if (AMQPPublisher.PAYLOAD_FILL_COMPRESSIBLE.equals(fill)) {
+            for (int i = 0; i < size; i++) {
+                body[i] = COMPRESSIBLE_ALPHABET[random.nextInt(COMPRESSIBLE_ALPHABET.length)];
+            }
+        } else if (!AMQPPublisher.PAYLOAD_FILL_ZEROS.equals(fill)) {
+            throw new IllegalArgumentException("Unknown payload fill pattern '" + fill
+                + "', expected one of " + Arrays.toString(AMQPPublisher.PAYLOAD_FILLS));
+        }
+
+        return body;
+    }
+
+    private static int parseSize(String value) {
+        String size = value.trim().toLowerCase(Locale.ROOT);
+        int multiplier = 1;
+
+        if (size.endsWith("k")) {
+            multiplier = 1024;
+        } else if (size.endsWith("m")) {
+            multiplier = 1024 * 1024;
+        }
+
+        if (multiplier > 1) {
+            size = size.substring(0, size.length() - 1).trim();
+        }
+
+        long bytes = Long.parseLong(size) * multiplier;
+
+        if (bytes < 0 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid payload size '" + value + "'");
+        }
+
+        return (int) bytes;
+    }
+}
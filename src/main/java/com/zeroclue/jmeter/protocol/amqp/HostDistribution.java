@@ -0,0 +1,216 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.Address;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Distribution of connections across the nodes of the comma-separated host list.
+ *
+ * <p>Each strategy picks the node a connection is opened to first, the remaining nodes
+ * are kept in the address list, so the client still fails over to them. Open connections
+ * are counted per node across the JVM.
+ */
+final class HostDistribution {
+
+    /**
+     * Open connections per node, keyed by host and port.
+     */
+    private static final ConcurrentMap<String, AtomicInteger> NODE_CONNECTIONS = new ConcurrentHashMap<>();
+
+    private HostDistribution() {
+    }
+
+    /**
+     * Order the addresses according to the strategy, the first address being the preferred node.
+     *
+     * @param addresses the addresses in configured order
+     * @param strategy one of {@link AMQPSampler#HOST_DISTRIBUTIONS}
+     * @param weights the weights of the addresses for the weighted strategy
+     * @param threadNum the number of the current thread, for round-robin
+     * @return the ordered addresses
+     */
+    static Address[] order(Address[] addresses, String strategy, int[] weights, int threadNum) {
+        if (addresses.length < 2) {
+            return addresses;
+        }
+
+        switch (strategy) {
+            case AMQPSampler.HOST_DISTRIBUTION_ROUND_ROBIN:
+                return rotate(addresses, Math.floorMod(threadNum, addresses.length));
+            case AMQPSampler.HOST_DISTRIBUTION_RANDOM:
+                return shuffle(addresses);
+            case AMQPSampler.HOST_DISTRIBUTION_WEIGHTED:
+                return rotate(addresses, pickWeighted(addresses.length, weights));
+            case AMQPSampler.HOST_DISTRIBUTION_FAILOVER:
+                return addresses;
+            default:
+                throw new IllegalArgumentException("Unknown host distribution '" + strategy
+                    + "', expected one of " + Arrays.toString(AMQPSampler.HOST_DISTRIBUTIONS));
+        }
+    }
+
+    /**
+     * Parse the comma-separated weights of the hosts, missing weights default to 1.
+     *
+     * @param spec the comma-separated weights
+     * @param hosts the number of hosts
+     * @return the weight of each host
+     */
+    static int[] parseWeights(String spec, int hosts) {
+        int[] weights = new int[hosts];
+        Arrays.fill(weights, 1);
+
+        if (spec == null || spec.trim().isEmpty()) {
+            return weights;
+        }
+
+        String[] values = spec.split(",");
+
+        if (values.length > hosts) {
+            throw new IllegalArgumentException("More host weights than hosts: " + spec);
+        }
+
+        for (int i = 0; i < values.length; i++) {
+            weights[i] = Integer.parseInt(values[i].trim());
+
+            if (weights[i] < 0) {
+                throw new IllegalArgumentException("Negative host weight: " + spec);
+            }
+        }
+
+        return weights;
+    }
+
+    /**
+     * Count a newly opened connection against its node, until it is closed.
+     *
+     * @param connection the opened connection
+     * @return the node of the connection
+     */
+    static String register(Connection connection) {
+        String node = nodeOf(connection);
+        increment(node);
+        // a recovering connection notifies the shutdown of its previous delegate only after recovery,
+        // so the count is taken off the node the delegate was connected to
+        connection.addShutdownListener(cause -> decrement(cause.getReference() instanceof Connection
+                ? nodeOf((Connection) cause.getReference()) : node));
+
+        // a recovered connection counts again, against the node it has been recovered to
+        if (connection instanceof Recoverable) {
+            ((Recoverable) connection).addRecoveryListener(new RecoveryListener() {
+                @Override
+                public void handleRecovery(Recoverable recoverable) {
+                    increment(nodeOf(connection));
+                }
+
+                @Override
+                public void handleRecoveryStarted(Recoverable recoverable) {
+                    // counted once recovered
+                }
+            });
+        }
+
+        return node;
+    }
+
+    private static void increment(String node) {
+        NODE_CONNECTIONS.computeIfAbsent(node, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static void decrement(String node) {
+        // only take the count off a node the connection has been counted against
+        AtomicInteger count = NODE_CONNECTIONS.get(node);
+
+        if (count != null) {
+            count.decrementAndGet();
+        }
+    }
+
+    static String nodeOf(Connection connection) {
+        // the host name the connection was opened with if any, otherwise the IP address, without reverse lookup
+        return new InetSocketAddress(connection.getAddress(), connection.getPort()).getHostString()
+            + ':' + connection.getPort();
+    }
+
+    /**
+     * @return the open connections per node, sorted by node
+     */
+    static String formatNodeConnections() {
+        Map<String, Integer> counts = new TreeMap<>();
+
+        for (Map.Entry<String, AtomicInteger> entry : NODE_CONNECTIONS.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+
+            sb.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+
+        return sb.toString();
+    }
+
+    private static int pickWeighted(int count, int[] weights) {
+        long total = 0;
+
+        for (int i = 0; i < count; i++) {
+            total += weights[i];
+        }
+
+        if (total == 0) {
+            throw new IllegalArgumentException("Host weights must not all be zero");
+        }
+
+        long pick = ThreadLocalRandom.current().nextLong(total);
+
+        for (int i = 0; i < count; i++) {
+            pick -= weights[i];
+
+            if (pick < 0) {
+                return i;
+            }
+        }
+
+        return count - 1;
+    }
+
+    private static Address[] rotate(Address[] addresses, int first) {
+        Address[] ordered = new Address[addresses.length];
+
+        for (int i = 0; i < addresses.length; i++) {
+            ordered[i] = addresses[(first + i) % addresses.length];
+        }
+
+        return ordered;
+    }
+
+    private static Address[] shuffle(Address[] addresses) {
+        Address[] shuffled = addresses.clone();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = shuffled.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            Address tmp = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = tmp;
+        }
+
+        return shuffled;
+    }
+}
@@ -0,0 +1,174 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Source of message bodies for the {@link AMQPPublisher}.
+ *
+ * <p>Bodies are decoded or loaded once and then published as is, returned arrays are shared
+ * and must never be modified.
+ */
+abstract class MessagePayload {
+
+    /**
+     * Contents of payload files, loaded once per JVM and shared by all threads.
+     */
+    private static final ConcurrentMap<Path, List<byte[]>> FILES = new ConcurrentHashMap<>();
+
+    /**
+     * @return the body of the next message
+     */
+    abstract byte[] next();
+
+    /**
+     * @return a short description of the payload for the sample result
+     */
+    abstract String describe();
+
+    static MessagePayload text(String message) {
+        return new StaticPayload(message.getBytes(StandardCharsets.UTF_8), message);
+    }
+
+    static MessagePayload hex(String message) {
+        return new StaticPayload(decodeHex(message), message);
+    }
+
+    static MessagePayload base64(String message) {
+        return new StaticPayload(Base64.getMimeDecoder().decode(message), message);
+    }
+
+    /**
+     * Payload of a single file, or of all regular files in a directory in name order,
+     * which are published in turn.
+     *
+     * @param path the path of a file or a directory
+     * @return the file payload
+     */
+    static MessagePayload files(String path) {
+        Path normalized = Paths.get(path).toAbsolutePath().normalize();
+        List<byte[]> bodies = FILES.computeIfAbsent(normalized, MessagePayload::load);
+
+        return new FilePayload(bodies, normalized);
+    }
+
+    /**
+     * Forget the loaded payload files, so they are loaded again by the next test.
+     */
+    static void clear() {
+        FILES.clear();
+    }
+
+    private static List<byte[]> load(Path path) {
+        try {
+            if (!Files.isDirectory(path)) {
+                return Collections.singletonList(Files.readAllBytes(path));
+            }
+
+            List<Path> files = new ArrayList<>();
+
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(path, Files::isRegularFile)) {
+                for (Path file : stream) {
+                    files.add(file);
+                }
+            }
+
+            if (files.isEmpty()) {
+                throw new IllegalArgumentException("No payload files found in " + path);
+            }
+
+            Collections.sort(files);
+            List<byte[]> bodies = new ArrayList<>(files.size());
+
+            for (Path file : files) {
+                bodies.add(Files.readAllBytes(file));
+            }
+
+            return Collections.unmodifiableList(bodies);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load payload from " + path, e);
+        }
+    }
+
+    private static byte[] decodeHex(String message) {
+        String hex = message.replaceAll("\\s", "");
+
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Hex payload must have an even number of digits");
+        }
+
+        byte[] bytes = new byte[hex.length() / 2];
+
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex digit in payload at " + (2 * i));
+            }
+
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+
+        return bytes;
+    }
+
+    private static final class StaticPayload extends MessagePayload {
+
+        private final byte[] body;
+        private final String description;
+
+        StaticPayload(byte[] body, String description) {
+            this.body = body;
+            this.description = description;
+        }
+
+        @Override
+        byte[] next() {
+            return body;
+        }
+
+        @Override
+        String describe() {
+            return description;
+        }
+    }
+
+    private static final class FilePayload extends MessagePayload {
+
+        private final List<byte[]> bodies;
+        private final Path path;
+        private int index;      // each thread has its own payload instance
+
+        FilePayload(List<byte[]> bodies, Path path) {
+            this.bodies = bodies;
+            this.path = path;
+        }
+
+        @Override
+        byte[] next() {
+            byte[] body = bodies.get(index);
+            index = (index + 1) % bodies.size();
+
+            return body;
+        }
+
+        @Override
+        String describe() {
+            return bodies.size() == 1
+                ? "File " + path + " (" + bodies.get(0).length + " bytes)"
+                : "Directory " + path + " (" + bodies.size() + " files)";
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.AMQP;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.apache.jmeter.config.Argument;
+import org.apache.jmeter.config.Arguments;
+import org.apache.jmeter.testelement.property.FunctionProperty;
+import org.apache.jmeter.testelement.property.JMeterProperty;
+
+/**
+ * Message properties and headers compiled once per thread.
+ *
+ * <p>Fields and headers with static values are resolved once into a base {@link AMQP.BasicProperties}
+ * instance, which is shared by all published messages. Only fields and headers with dynamic values,
+ * i.e. containing variables or functions, are rendered again, on top of a copy of the base properties.
+ */
+final class MessagePropertiesTemplate {
+
+    private final AMQP.BasicProperties.Builder builder = new AMQP.BasicProperties.Builder();
+    private final List<Consumer<AMQP.BasicProperties.Builder>> dynamicFields = new ArrayList<>();
+    private final List<Argument> dynamicHeaders = new ArrayList<>();
+    private final Map<String, Object> staticHeaders = new LinkedHashMap<>();
+
+    private AMQP.BasicProperties base;
+    private String formattedHeaders;
+
+    MessagePropertiesTemplate(Arguments headers) {
+        if (headers != null) {
+            for (JMeterProperty property : headers.getArguments()) {
+                Argument header = (Argument) property.getObjectValue();
+
+                if (isDynamic(header.getProperty(Argument.NAME)) || isDynamic(header.getProperty(Argument.VALUE))) {
+                    dynamicHeaders.add(header);
+                } else {
+                    staticHeaders.put(header.getName(), header.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a message property field to the template.
+     *
+     * @param dynamic whether the field has to be rendered for every message
+     * @param renderer sets the field value on the builder, an unset value must be explicitly set to null
+     * @return this template
+     */
+    MessagePropertiesTemplate field(boolean dynamic, Consumer<AMQP.BasicProperties.Builder> renderer) {
+        renderer.accept(builder);
+
+        if (dynamic) {
+            dynamicFields.add(renderer);
+        }
+
+        return this;
+    }
+
+    /**
+     * Resolve all static fields and headers, no fields can be added afterwards.
+     *
+     * @return this template
+     */
+    MessagePropertiesTemplate compile() {
+        Map<String, Object> headers = Collections.unmodifiableMap(staticHeaders);
+        base = builder.headers(headers).build();
+        formattedHeaders = formatHeaders(headers);
+
+        return this;
+    }
+
+    boolean isDynamic() {
+        return !dynamicFields.isEmpty() || !dynamicHeaders.isEmpty();
+    }
+
+    /**
+     * @return the message properties, shared as long as the template has no dynamic fields
+     */
+    AMQP.BasicProperties render() {
+        if (!isDynamic()) {
+            return base;
+        }
+
+        AMQP.BasicProperties.Builder copy = base.builder();
+
+        for (Consumer<AMQP.BasicProperties.Builder> renderer : dynamicFields) {
+            renderer.accept(copy);
+        }
+
+        if (!dynamicHeaders.isEmpty()) {
+            Map<String, Object> headers = new LinkedHashMap<>(staticHeaders);
+
+            for (Argument header : dynamicHeaders) {
+                headers.put(header.getName(), header.getValue());
+            }
+
+            copy.headers(headers);
+            formattedHeaders = formatHeaders(headers);
+        }
+
+        return copy.build();
+    }
+
+    /**
+     * @return the headers of the most recently rendered properties, formatted for the sample result
+     */
+    String getFormattedHeaders() {
+        return formattedHeaders;
+    }
+
+    private static boolean isDynamic(JMeterProperty property) {
+        return property instanceof FunctionProperty;
+    }
+
+    private static String formatHeaders(Map<String, Object> headers) {
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<String, Object> entry : headers.entrySet()) {
+            sb.append(entry.getKey())
+                .append(": ")
+                .append(entry.getValue())
+                .append("\n");
+        }
+
+        return sb.toString();
+    }
+}
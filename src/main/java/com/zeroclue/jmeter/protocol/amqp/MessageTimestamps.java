@@ -0,0 +1,60 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Send timestamps embedded by the {@link AMQPPublisher} into message headers,
+ * from which the {@link AMQPConsumer} computes the end-to-end delivery latency.
+ *
+ * <p>Timestamps are wall clock microseconds since the epoch, derived from {@link System#nanoTime()}
+ * for sub-millisecond resolution. Latencies measured across hosts are only as accurate
+ * as the clock synchronization between them.
+ */
+final class MessageTimestamps {
+
+    public static final String SEND_TIME_HEADER = "x-jmeter-send-time-us";
+    public static final String SEQUENCE_HEADER  = "x-jmeter-sequence";
+
+    private static final long EPOCH_MICROS = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+    private static final long EPOCH_NANOS = System.nanoTime();
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private MessageTimestamps() {
+    }
+
+    /**
+     * @return the current wall clock time in microseconds since the epoch
+     */
+    static long currentTimeMicros() {
+        return EPOCH_MICROS + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - EPOCH_NANOS);
+    }
+
+    /**
+     * @return the next message sequence number, unique within the JVM
+     */
+    static long nextSequence() {
+        return SEQUENCE.incrementAndGet();
+    }
+
+    /**
+     * @param header the value of the send time header, may be null
+     * @return the send time in microseconds since the epoch, or -1 if the message has not been stamped
+     */
+    static long sendTime(Object header) {
+        if (header instanceof Number) {
+            return ((Number) header).longValue();
+        }
+
+        if (header != null) {
+            try {
+                return Long.parseLong(header.toString());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+}
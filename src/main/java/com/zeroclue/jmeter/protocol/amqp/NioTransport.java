@@ -0,0 +1,98 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.impl.FrameHandlerFactory;
+import com.rabbitmq.client.impl.nio.NioParams;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide state of the NIO transport.
+ *
+ * <p>The client keeps its NIO loops in the frame handler factory of each connection factory,
+ * and every sampler has its own connection factory. Frame handler factories are therefore shared
+ * by all samplers with the same transport settings, so their connections are multiplexed on the
+ * same few I/O threads instead of each thread starting its own. The loops of all factories run on
+ * one shared executor.
+ */
+final class NioTransport {
+
+    private static final Logger log = LoggerFactory.getLogger(NioTransport.class);
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new IoThreadFactory());
+
+    private static final ConcurrentMap<String, FrameHandlerFactory> FACTORIES = new ConcurrentHashMap<>();
+
+    private NioTransport() {
+    }
+
+    @FunctionalInterface
+    interface FrameHandlerFactoryCreator {
+        FrameHandlerFactory create() throws IOException;
+    }
+
+    /**
+     * @param threads the number of I/O threads, 0 for one per available processor
+     * @param readBufferSize the size of the read buffer of each connection, in bytes
+     * @param writeBufferSize the size of the write buffer of each connection, in bytes
+     * @return the NIO parameters running the I/O loops on the shared executor
+     */
+    static NioParams params(int threads, int readBufferSize, int writeBufferSize) {
+        return new NioParams()
+                .setNbIoThreads(threads > 0 ? threads : Runtime.getRuntime().availableProcessors())
+                .setReadByteBufferSize(readBufferSize)
+                .setWriteByteBufferSize(writeBufferSize)
+                .setNioExecutor(EXECUTOR);
+    }
+
+    /**
+     * @param key identifies the transport settings, including the connection timeout and SSL settings
+     * @param creator creates the frame handler factory if there is none for the key yet
+     * @return the frame handler factory shared by all samplers with these settings
+     */
+    static FrameHandlerFactory shared(String key, FrameHandlerFactoryCreator creator) throws IOException {
+        FrameHandlerFactory factory = FACTORIES.get(key);
+
+        if (factory == null) {
+            // I/O loops are only started by the first connection, so a factory created twice costs nothing
+            factory = creator.create();
+            FrameHandlerFactory previous = FACTORIES.putIfAbsent(key, factory);
+
+            if (previous != null) {
+                factory = previous;
+            } else {
+                log.info("Created NIO transport {}", key);
+            }
+        }
+
+        return factory;
+    }
+
+    /**
+     * Forget all frame handler factories, their loops stop once their connections are closed.
+     */
+    static void clear() {
+        FACTORIES.clear();
+    }
+
+    private static final class IoThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "amqp-nio-" + count.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Publishes messages on an intended-arrival schedule, independently of the JMeter thread driving it.
+ *
+ * <p>Arrivals are taken from an {@link ArrivalSchedule}, whether or not the previous messages have been
+ * published yet. A pool of worker threads, each with its own channel, publishes every message as soon as it is due. Workers falling behind publish the messages due in the meantime back to back,
+ * so the latency of every message is measured from the time it was due, and a slow or blocked broker shows
+ * up as latency instead of silently lowering the rate (coordinated omission).
+ *
+ * <p>The results are accumulated until collected by the driving thread, once per reporting interval.
+ */
+final class OpenModelEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(OpenModelEngine.class);
+
+    // time a worker waits after a failed publish, before taking the next arrival
+    private static final long ERROR_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Opens the channels of the workers, in the mode the messages are published with.
+     */
+    interface WorkerChannels {
+
+        Channel open() throws Exception;
+
+        /**
+         * @return the confirm tracker of a channel in confirm mode, null without publisher confirms
+         */
+        ConfirmTracker confirmTracker(Channel channel);
+
+        void release(Channel channel);
+    }
+
+    private final String name;
+    private final ArrivalSchedule schedule;
+    private final WorkerChannels channels;
+    private final PublisherSettings settings;
+    private final List<Thread> workers = new ArrayList<>();
+    private final List<ConfirmTracker> confirmTrackers = new CopyOnWriteArrayList<>();
+
+    private volatile boolean running;
+    private volatile AMQP.BasicProperties properties;
+    private volatile String lastError;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder sentBytes = new LongAdder();
+    private final Recorder latencies = new Recorder(3);      // from the due time to the publish, in microseconds
+    private final Recorder lags = new Recorder(3);           // from the due time to the start of the publish
+
+    /**
+     * @param name the name of the sampler, used to name the worker threads
+     * @param schedule the arrivals, possibly shared with other engines
+     * @param channels opens the channels of the workers
+     * @param settings the settings the messages are published with
+     * @param properties the initial message properties
+     */
+    OpenModelEngine(String name, ArrivalSchedule schedule, WorkerChannels channels, PublisherSettings settings,
+            AMQP.BasicProperties properties) {
+        this.name = name;
+        this.schedule = schedule;
+        this.channels = channels;
+        this.settings = settings;
+        this.properties = properties;
+    }
+
+    /**
+     * Start publishing the messages due from now on.
+     *
+     * @param payloads the payload of every worker, one worker is started per payload
+     */
+    synchronized void start(List<MessagePayload> payloads) {
+        running = true;
+
+        for (MessagePayload payload : payloads) {
+            Thread worker = new Thread(() -> run(payload), "amqp-open-" + name + "-" + (workers.size() + 1));
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+
+        log.info("Started {} worker(s) publishing for {}", payloads.size(), name);
+    }
+
+    /**
+     * Stop publishing and wait for the workers to release their channels.
+     *
+     * @param timeout max time in milliseconds to wait for each worker
+     */
+    void stop(long timeout) {
+        running = false;
+
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();     // re-interrupt the current thread
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param properties the message properties of the messages published from now on
+     */
+    void setProperties(AMQP.BasicProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * @return the time since the schedule started, in nanoseconds
+     */
+    long getElapsedNanos() {
+        return schedule.getElapsedNanos();
+    }
+
+    /**
+     * @return the average arrival rate between two points in time since the schedule started, in messages per second
+     */
+    double getTargetRate(long fromElapsedNanos, long toElapsedNanos) {
+        return schedule.getTargetRate(fromElapsedNanos, toElapsedNanos);
+    }
+
+    long getPublishedAndReset() {
+        return published.sumThenReset();
+    }
+
+    long getFailedAndReset() {
+        return failed.sumThenReset();
+    }
+
+    long getSentBytesAndReset() {
+        return sentBytes.sumThenReset();
+    }
+
+    /**
+     * @return the last publish error, or null if none since the last call
+     */
+    String getLastErrorAndReset() {
+        String error = lastError;
+        lastError = null;
+        return error;
+    }
+
+    /**
+     * @return the schedule lags since the last call, from the due time to the start of the publish, in microseconds
+     */
+    Histogram getLagsAndReset() {
+        return lags.getIntervalHistogram();
+    }
+
+    /**
+     * @return the latencies since the last call, from the due time to the publish or, with publisher confirms,
+     * to the confirm, in microseconds
+     */
+    Histogram getLatenciesAndReset() {
+        Histogram histogram = latencies.getIntervalHistogram();
+
+        for (ConfirmTracker tracker : confirmTrackers) {
+            histogram.add(tracker.getLatencyHistogramAndReset());
+        }
+
+        return histogram;
+    }
+
+    /**
+     * @return the confirms of all workers since the last call
+     */
+    ConfirmTracker.Confirms getConfirmsAndReset() {
+        ConfirmTracker.Confirms confirms = new ConfirmTracker.Confirms(0, 0, 0, 0);
+
+        for (ConfirmTracker tracker : confirmTrackers) {
+            confirms = confirms.plus(tracker.getConfirmsAndReset());
+        }
+
+        return confirms;
+    }
+
+    private void run(MessagePayload payload) {
+        Map<String, Object> stampedHeaders = new HashMap<>();
+        Channel channel = null;
+        ConfirmTracker confirmTracker = null;
+        String exchange = settings.getExchange();
+        String routingKey = settings.getRoutingKey();
+        boolean mandatory = settings.isMandatory();
+        boolean timestamp = settings.isTimestampMessages();
+        long timeout = settings.getTimeout();
+        int frameMax = 0;
+        AMQP.BasicProperties sizedProperties = null;     // last properties measured for byte accounting
+        long contentHeaderSize = 0;
+
+        try {
+            while (running) {
+                long due = schedule.nextArrival();
+                long delay;
+
+                while ((delay = due - System.nanoTime()) > 0 && running) {
+                    LockSupport.parkNanos(delay);
+                }
+
+                if (!running) {
+                    break;
+                }
+
+                long start = System.nanoTime();
+
+                try {
+                    if (channel == null || !channel.isOpen()) {
+                        // a recovering connection re-opens the channel by itself
+                        if (channel == null || !RecoveryMonitor.isRecovering(channel.getConnection())) {
+                            if (channel != null) {
+                                confirmTrackers.remove(confirmTracker);
+                                channels.release(channel);
+                                channel = null;
+                            }
+
+                            channel = channels.open();
+                            frameMax = channel.getConnection().getFrameMax();
+                            confirmTracker = channels.confirmTracker(channel);
+
+                            if (confirmTracker != null) {
+                                confirmTrackers.add(confirmTracker);
+                            }
+                        }
+                    }
+
+                    long seqNo = confirmTracker != null ? confirmTracker.register(timeout, due) : -1;
+                    AMQP.BasicProperties current = properties;
+                    AMQP.BasicProperties messageProperties;
+                    byte[] body;
+
+                    try {
+                        messageProperties = timestamp ? AMQPPublisher.stamp(current, stampedHeaders) : current;
+                        body = payload.next();
+
+                        channel.basicPublish(exchange, routingKey, mandatory, messageProperties, body);
+                    } catch (Exception e) {
+                        // the message will never be confirmed, give its slot in the window back
+                        if (seqNo >= 0) {
+                            confirmTracker.unregister(seqNo);
+                        }
+
+                        throw e;
+                    }
+
+                    long end = System.nanoTime();
+
+                    lags.recordValue(TimeUnit.NANOSECONDS.toMicros(start - due));
+
+                    if (confirmTracker == null) {
+                        latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(end - due));
+                    }
+
+                    if (messageProperties != sizedProperties) {
+                        sizedProperties = messageProperties;
+                        contentHeaderSize = FrameSizes.contentHeader(messageProperties);
+                    }
+
+                    published.increment();
+                    sentBytes.add(FrameSizes.publish(exchange, routingKey, contentHeaderSize, body.length, frameMax));
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    failed.increment();
+                    lastError = e.toString();
+                    log.debug("Failed to publish", e);
+
+                    LockSupport.parkNanos(ERROR_BACKOFF_NANOS);
+                }
+            }
+        } finally {
+            if (channel != null) {
+                confirmTrackers.remove(confirmTracker);
+                channels.release(channel);
+            }
+        }
+    }
+}
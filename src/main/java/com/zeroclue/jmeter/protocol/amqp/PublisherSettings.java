@@ -0,0 +1,115 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+/**
+ * Immutable, typed snapshot of the {@link AMQPPublisher} settings used on the publish path.
+ *
+ * <p>Resolving a JMeter property means a property map lookup and string parsing,
+ * which is too expensive to be done for every published message.
+ * The snapshot is resolved once and reused for as long as none of its properties
+ * is evaluated per iteration, i.e. contains a variable or a function.
+ */
+final class PublisherSettings {
+
+    private final String exchange;
+    private final String routingKey;
+    private final int iterations;
+    private final int timeout;
+    private final boolean useTx;
+    private final boolean publisherConfirms;
+    private final boolean timestampMessages;
+    private final boolean latencyPercentiles;
+    private final boolean pauseWhileBlocked;
+    private final boolean mandatory;
+    private final String rateProfile;
+    private final int rate;
+    private final int peakRate;
+    private final int ratePeriod;
+    private final int burstTime;
+    private final boolean dynamic;
+
+    PublisherSettings(AMQPPublisher sampler, boolean dynamic) {
+        this.exchange = sampler.getExchange();
+        this.routingKey = sampler.getMessageRoutingKey();
+        this.iterations = sampler.getIterationsAsInt();
+        this.timeout = sampler.getTimeoutAsInt();
+        this.useTx = sampler.getUseTx();
+        this.publisherConfirms = sampler.getPublisherConfirms();
+        this.timestampMessages = sampler.getTimestampMessages();
+        this.latencyPercentiles = sampler.getLatencyPercentiles();
+        this.pauseWhileBlocked = sampler.getPauseWhileBlocked();
+        this.mandatory = sampler.getMandatory();
+        this.rateProfile = sampler.getRateProfile();
+        this.rate = sampler.getRateAsInt();
+        this.peakRate = sampler.getPeakRateAsInt();
+        this.ratePeriod = sampler.getRatePeriodAsInt();
+        this.burstTime = sampler.getBurstTimeAsInt();
+        this.dynamic = dynamic;
+    }
+
+    String getExchange() {
+        return exchange;
+    }
+
+    String getRoutingKey() {
+        return routingKey;
+    }
+
+    int getIterations() {
+        return iterations;
+    }
+
+    int getTimeout() {
+        return timeout;
+    }
+
+    boolean isUseTx() {
+        return useTx;
+    }
+
+    boolean isPublisherConfirms() {
+        return publisherConfirms;
+    }
+
+    boolean isTimestampMessages() {
+        return timestampMessages;
+    }
+
+    boolean isLatencyPercentiles() {
+        return latencyPercentiles;
+    }
+
+    boolean isPauseWhileBlocked() {
+        return pauseWhileBlocked;
+    }
+
+    boolean isMandatory() {
+        return mandatory;
+    }
+
+    String getRateProfile() {
+        return rateProfile;
+    }
+
+    int getRate() {
+        return rate;
+    }
+
+    int getPeakRate() {
+        return peakRate;
+    }
+
+    int getRatePeriod() {
+        return ratePeriod;
+    }
+
+    int getBurstTime() {
+        return burstTime;
+    }
+
+    /**
+     * @return true if the snapshot must be resolved again for every sample
+     */
+    boolean isDynamic() {
+        return dynamic;
+    }
+}
@@ -0,0 +1,128 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket pacing the messages published by all threads of a publisher element to a shared target rate.
+ *
+ * <p>Every message takes a token. Tokens are added at the rate of the {@link RateProfile} at
+ * the time, and at most 10 ms worth of them are kept, so threads cannot burst after being idle.
+ * A thread finding the bucket empty reserves the next token and sleeps until it is due,
+ * so waiting threads are served in order without polling.
+ *
+ * <p>The profile starts with the first message of the test.
+ */
+final class RateLimiter {
+
+    private static final ConcurrentMap<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private static final double MAX_BURST_SECONDS = 0.01;
+
+    // while the target rate is 0, the rate is checked again after this delay
+    private static final long IDLE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final RateProfile profile;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong permits = new AtomicLong();
+
+    // guarded by this
+    private double tokens;
+    private long refilledNanos = startNanos;
+
+    private RateLimiter(RateProfile profile) {
+        this.profile = profile;
+    }
+
+    /**
+     * @param name the name of the publisher element, threads of elements with the same name share the limiter
+     * @param profile the target rate
+     * @return the limiter shared by the threads of the element
+     */
+    static RateLimiter shared(String name, RateProfile profile) {
+        return LIMITERS.computeIfAbsent(name + '|' + profile, k -> new RateLimiter(profile));
+    }
+
+    /**
+     * Forget all limiters, so the profiles start over with the next test.
+     */
+    static void clear() {
+        LIMITERS.clear();
+    }
+
+    /**
+     * Take a token, waiting until one is available.
+     *
+     * @return the time spent waiting, in nanoseconds
+     * @throws InterruptedException if interrupted while waiting
+     */
+    long acquire() throws InterruptedException {
+        long start = System.nanoTime();
+
+        while (true) {
+            long wait = reserve();
+
+            if (wait == 0) {
+                break;
+            }
+
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+                break;
+            }
+
+            // idle phase of the profile, nothing reserved
+            TimeUnit.NANOSECONDS.sleep(IDLE_CHECK_NANOS);
+        }
+
+        permits.incrementAndGet();
+
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return the number of tokens taken since the limiter was created
+     */
+    long getPermits() {
+        return permits.get();
+    }
+
+    /**
+     * @return the time since the limiter was created, in nanoseconds
+     */
+    long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @param fromElapsedNanos the start of the interval, see {@link #getElapsedNanos()}
+     * @param toElapsedNanos the end of the interval
+     * @return the average target rate of the interval, in messages per second
+     */
+    double getTargetRate(long fromElapsedNanos, long toElapsedNanos) {
+        return profile.averageRate(fromElapsedNanos, toElapsedNanos);
+    }
+
+    /**
+     * @return 0 if a token was taken, the time to wait for the reserved token, or -1 if the target rate is 0
+     */
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        double rate = profile.rateAt(now - startNanos);
+
+        if (rate <= 0) {
+            // tokens do not accumulate while idle
+            tokens = Math.min(tokens, 0);
+            refilledNanos = now;
+            return -1;
+        }
+
+        tokens = Math.min(Math.max(1, rate * MAX_BURST_SECONDS), tokens + rate * (now - refilledNanos) / 1e9);
+        refilledNanos = now;
+        tokens -= 1;
+
+        return tokens >= 0 ? 0 : Math.max(1, (long) (-tokens / rate * 1e9));
+    }
+}
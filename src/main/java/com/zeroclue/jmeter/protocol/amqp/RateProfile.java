@@ -0,0 +1,116 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Target publish rate over the course of a test, in messages per second.
+ *
+ * <ul>
+ * <li>Constant: the base rate.
+ * <li>Step: the base rate, increased by the base rate every period, up to the peak rate.
+ * <li>Ramp: from the base rate to the peak rate, linearly over the period, then the peak rate.
+ * <li>Sine: between the base rate and the peak rate, starting from the base rate, repeating every period.
+ * <li>Burst: the peak rate for the burst time, then the base rate, 0 to idle, until the end of the period, repeating.
+ * </ul>
+ */
+final class RateProfile {
+
+    private final String shape;
+    private final double rate;
+    private final double peakRate;
+    private final long periodNanos;
+    private final long burstNanos;
+
+    /**
+     * @param shape one of {@link AMQPPublisher#RATE_PROFILES}, except off
+     * @param rate the base rate in messages per second
+     * @param peakRate the peak rate in messages per second
+     * @param periodSeconds the period of the profile in seconds
+     * @param burstSeconds the burst time in seconds
+     */
+    RateProfile(String shape, double rate, double peakRate, int periodSeconds, int burstSeconds) {
+        if (!Arrays.asList(AMQPPublisher.RATE_PROFILES).contains(shape) || AMQPPublisher.RATE_PROFILE_OFF.equals(shape)) {
+            throw new IllegalArgumentException("Unknown rate profile '" + shape
+                + "', expected one of " + Arrays.toString(AMQPPublisher.RATE_PROFILES));
+        }
+
+        if (rate < 0 || peakRate < 0) {
+            throw new IllegalArgumentException("Negative publish rate");
+        }
+
+        boolean constant = AMQPPublisher.RATE_PROFILE_CONSTANT.equals(shape);
+
+        // a profile that never rises above 0 would wait forever for the first message
+        if (constant ? rate == 0 : peakRate == 0) {
+            throw new IllegalArgumentException("The " + (constant ? "rate" : "peak rate")
+                + " of the " + shape + " rate profile must be positive");
+        }
+
+        // steps are multiples of the base rate
+        if (AMQPPublisher.RATE_PROFILE_STEP.equals(shape) && rate == 0) {
+            throw new IllegalArgumentException("The rate of the " + shape + " rate profile must be positive");
+        }
+
+        if (!constant && periodSeconds <= 0) {
+            throw new IllegalArgumentException("The period of the " + shape + " rate profile must be positive");
+        }
+
+        if (AMQPPublisher.RATE_PROFILE_BURST.equals(shape) && burstSeconds <= 0) {
+            throw new IllegalArgumentException("The burst time of the " + shape + " rate profile must be positive");
+        }
+
+        this.shape = shape;
+        this.rate = rate;
+        this.peakRate = peakRate;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(periodSeconds);
+        this.burstNanos = TimeUnit.SECONDS.toNanos(burstSeconds);
+    }
+
+    /**
+     * @param elapsedNanos the time since the profile started
+     * @return the target rate at that time, in messages per second
+     */
+    double rateAt(long elapsedNanos) {
+        switch (shape) {
+            case AMQPPublisher.RATE_PROFILE_STEP:
+                return Math.min(peakRate, rate * (1 + elapsedNanos / periodNanos));
+            case AMQPPublisher.RATE_PROFILE_RAMP:
+                return elapsedNanos >= periodNanos
+                    ? peakRate
+                    : rate + (peakRate - rate) * elapsedNanos / periodNanos;
+            case AMQPPublisher.RATE_PROFILE_SINE:
+                double phase = 2 * Math.PI * (elapsedNanos % periodNanos) / periodNanos;
+                return rate + (peakRate - rate) * (1 - Math.cos(phase)) / 2;
+            case AMQPPublisher.RATE_PROFILE_BURST:
+                return elapsedNanos % periodNanos < burstNanos ? peakRate : rate;
+            default:
+                return rate;
+        }
+    }
+
+    /**
+     * @return the average target rate between two points in time, in messages per second
+     */
+    double averageRate(long fromNanos, long toNanos) {
+        if (toNanos <= fromNanos) {
+            return rateAt(fromNanos);
+        }
+
+        // midpoint rule, fine enough for the shapes above
+        int steps = 64;
+        double step = (double) (toNanos - fromNanos) / steps;
+        double sum = 0;
+
+        for (int i = 0; i < steps; i++) {
+            sum += rateAt(fromNanos + (long) (step * (i + 0.5)));
+        }
+
+        return sum / steps;
+    }
+
+    @Override
+    public String toString() {
+        return shape + '|' + rate + '|' + peakRate + '|' + periodNanos + '|' + burstNanos;
+    }
+}
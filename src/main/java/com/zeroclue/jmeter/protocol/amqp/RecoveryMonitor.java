@@ -0,0 +1,101 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jmeter.samplers.SampleResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the outages of an automatically recovering connection.
+ *
+ * <p>Every outage, from the loss of the connection until the client has recovered the connection,
+ * its channels, topology and consumers, is reported as a sample result. The results are
+ * handed over to the sampler, which attaches them to its next sample.
+ *
+ * <p>The client waits for the recovery interval between detecting the loss and starting the recovery,
+ * and only notifies the shutdown listeners of the lost connection once it has been recovered.
+ * The outage is therefore taken to start one recovery interval before the recovery started.
+ */
+final class RecoveryMonitor implements RecoveryListener {
+
+    private static final Logger log = LoggerFactory.getLogger(RecoveryMonitor.class);
+
+    private final Connection connection;
+    private final String label;
+    private final long intervalNanos;
+    private final Queue<SampleResult> results;
+
+    // written by the recovery thread
+    private volatile long recoveryStart;
+    private volatile long recoveryStartNanos;
+
+    private RecoveryMonitor(Connection connection, String label, long intervalMillis, Queue<SampleResult> results) {
+        this.connection = connection;
+        this.label = label;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.results = results;
+    }
+
+    /**
+     * Monitor the outages of the connection, if it recovers automatically.
+     *
+     * @param connection the opened connection
+     * @param label the label of the sampler, suffixed with {@link AMQPSampler#RECOVERY_LABEL_SUFFIX}
+     * @param intervalMillis the recovery interval of the connection
+     * @param results receives a result for every recovered outage
+     */
+    static void attach(Connection connection, String label, long intervalMillis, Queue<SampleResult> results) {
+        if (connection instanceof Recoverable) {
+            ((Recoverable) connection).addRecoveryListener(new RecoveryMonitor(connection, label, intervalMillis, results));
+        }
+    }
+
+    /**
+     * @return true if the connection is closed, but is being recovered by the client
+     */
+    static boolean isRecovering(Connection connection) {
+        if (!(connection instanceof Recoverable) || connection.isOpen()) {
+            return false;
+        }
+
+        ShutdownSignalException reason = connection.getCloseReason();
+
+        return reason == null || !reason.isInitiatedByApplication();
+    }
+
+    @Override
+    public void handleRecoveryStarted(Recoverable recoverable) {
+        recoveryStart = System.currentTimeMillis();
+        recoveryStartNanos = System.nanoTime();
+
+        log.warn("Connection to {} lost, recovering", HostDistribution.nodeOf(connection));
+    }
+
+    @Override
+    public void handleRecovery(Recoverable recoverable) {
+        long recovery = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - recoveryStartNanos);
+        long outage = recovery + TimeUnit.NANOSECONDS.toMillis(intervalNanos);
+        String node = HostDistribution.nodeOf(connection);
+
+        SampleResult result = new SampleResult();
+        result.setSampleLabel(label + AMQPSampler.RECOVERY_LABEL_SUFFIX);
+        result.setStampAndTime(recoveryStart - TimeUnit.NANOSECONDS.toMillis(intervalNanos), outage);
+        result.setResponseCodeOK();
+        result.setResponseMessage("Recovered connection to " + node + " after " + outage + " ms");
+        result.setResponseHeaders(AMQPSampler.OUTAGE_TIME_PARAMETER + ": " + outage + "\n"
+                + AMQPSampler.RECOVERY_TIME_PARAMETER + ": " + recovery + "\n"
+                + AMQPSampler.NODE_PARAMETER + ": " + node + "\n");
+        result.setSuccessful(true);
+
+        results.add(result);
+
+        log.info("Connection recovered to {} after {} ms", node, outage);
+    }
+}
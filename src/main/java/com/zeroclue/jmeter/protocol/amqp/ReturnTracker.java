@@ -0,0 +1,94 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ReturnListener;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts the mandatory messages returned by the broker as unroutable, per routing key.
+ *
+ * <p>Returns are delivered asynchronously by the connection thread, and taken by the publishing
+ * thread once per sample. With publisher confirms, the broker sends the return of a message before
+ * its confirm, so all returns of a sample have been counted once its confirms have been received.
+ * Without confirms, a return is counted by the sample during which it is received.
+ */
+class ReturnTracker implements ReturnListener {
+
+    // guarded by this
+    private Map<String, Long> returned = new TreeMap<>();
+    private long count;
+    private int replyCode;
+    private String replyText;
+
+    @Override
+    public synchronized void handleReturn(int replyCode, String replyText, String exchange, String routingKey,
+            AMQP.BasicProperties properties, byte[] body) {
+        returned.merge(routingKey, 1L, Long::sum);
+        count++;
+        this.replyCode = replyCode;
+        this.replyText = replyText;
+    }
+
+    /**
+     * @return the returns counted since the previous call
+     */
+    synchronized Returns getReturnsAndReset() {
+        Returns returns = new Returns(count, returned, replyCode, replyText);
+        returned = new TreeMap<>();
+        count = 0;
+
+        return returns;
+    }
+
+    /**
+     * Returns of a sample.
+     */
+    static final class Returns {
+
+        private final long count;
+        private final Map<String, Long> perRoutingKey;
+        private final int replyCode;
+        private final String replyText;
+
+        Returns(long count, Map<String, Long> perRoutingKey, int replyCode, String replyText) {
+            this.count = count;
+            this.perRoutingKey = perRoutingKey;
+            this.replyCode = replyCode;
+            this.replyText = replyText;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the reply code of the last return, e.g. 312 for NO_ROUTE
+         */
+        int getReplyCode() {
+            return replyCode;
+        }
+
+        String getReplyText() {
+            return replyText;
+        }
+
+        /**
+         * @return the returned messages per routing key, sorted by routing key
+         */
+        String formatPerRoutingKey() {
+            StringBuilder sb = new StringBuilder();
+
+            for (Map.Entry<String, Long> entry : perRoutingKey.entrySet()) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+
+                sb.append(entry.getKey()).append('=').append(entry.getValue());
+            }
+
+            return sb.toString();
+        }
+    }
+}
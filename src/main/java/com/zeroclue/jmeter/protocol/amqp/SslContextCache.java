@@ -0,0 +1,199 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import com.rabbitmq.client.SocketConfigurator;
+import com.rabbitmq.client.SslEngineConfigurator;
+import com.rabbitmq.client.TrustEverythingTrustManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide cache of the SSL contexts used by the samplers.
+ *
+ * <p>A context is built once per distinct protocol, key store and trust store, and shared by
+ * all threads using that configuration. Sharing the context shares its client session cache,
+ * so connections after the first one to a node resume the TLS session instead of running a full
+ * handshake. Without a trust store, every server certificate is trusted, as before.
+ */
+final class SslContextCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SslContextCache.class);
+
+    // sessions are kept for the whole test, the JDK defaults to 24 hours and 20480 entries
+    private static final int SESSION_TIMEOUT_SECONDS = 24 * 60 * 60;
+    private static final int SESSION_CACHE_SIZE = 0;        // unlimited
+
+    private static final ConcurrentMap<String, SSLContext> CONTEXTS = new ConcurrentHashMap<>();
+
+    private SslContextCache() {
+    }
+
+    /**
+     * @param protocol the SSLContext protocol, e.g. TLS or TLSv1.2
+     * @param keyStore the path of the client key store, blank for none
+     * @param keyStorePassword the password of the key store and its keys
+     * @param trustStore the path of the trust store, blank to trust all servers
+     * @param trustStorePassword the password of the trust store
+     * @return the shared context of this configuration
+     */
+    static SSLContext get(String protocol, String keyStore, String keyStorePassword,
+            String trustStore, String trustStorePassword) throws GeneralSecurityException, IOException {
+        String key = protocol + '|' + keyStore + '|' + passwordHash(keyStorePassword)
+                + '|' + trustStore + '|' + passwordHash(trustStorePassword);
+
+        SSLContext context = CONTEXTS.get(key);
+
+        if (context == null) {
+            // threads racing on the first connection may build the context twice, only one is kept
+            context = create(protocol, keyStore, keyStorePassword, trustStore, trustStorePassword);
+            SSLContext previous = CONTEXTS.putIfAbsent(key, context);
+
+            if (previous != null) {
+                context = previous;
+            } else {
+                log.info("Created SSL context {} with key store '{}' and trust store '{}'", protocol, keyStore, trustStore);
+            }
+        }
+
+        return context;
+    }
+
+    /**
+     * @param protocols the comma-separated protocol versions to enable, blank for the context defaults
+     * @param cipherSuites the comma-separated cipher suites to enable, blank for the context defaults
+     * @return a configurator restricting the protocols and cipher suites of SSL sockets, or null if not restricted
+     */
+    static SocketConfigurator restrict(String protocols, String cipherSuites) {
+        String[] enabledProtocols = split(protocols);
+        String[] enabledCipherSuites = split(cipherSuites);
+
+        if (enabledProtocols == null && enabledCipherSuites == null) {
+            return null;
+        }
+
+        return socket -> {
+            if (socket instanceof SSLSocket) {
+                SSLSocket sslSocket = (SSLSocket) socket;
+
+                if (enabledProtocols != null) {
+                    sslSocket.setEnabledProtocols(enabledProtocols);
+                }
+
+                if (enabledCipherSuites != null) {
+                    sslSocket.setEnabledCipherSuites(enabledCipherSuites);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param protocols the comma-separated protocol versions to enable, blank for the context defaults
+     * @param cipherSuites the comma-separated cipher suites to enable, blank for the context defaults
+     * @return a configurator restricting the protocols and cipher suites of SSL engines of the NIO transport
+     */
+    static SslEngineConfigurator restrictEngine(String protocols, String cipherSuites) {
+        String[] enabledProtocols = split(protocols);
+        String[] enabledCipherSuites = split(cipherSuites);
+
+        return engine -> {
+            if (enabledProtocols != null) {
+                engine.setEnabledProtocols(enabledProtocols);
+            }
+
+            if (enabledCipherSuites != null) {
+                engine.setEnabledCipherSuites(enabledCipherSuites);
+            }
+        };
+    }
+
+    /**
+     * Forget all contexts, so key and trust stores are read again by the next test.
+     */
+    static void clear() {
+        CONTEXTS.clear();
+    }
+
+    private static SSLContext create(String protocol, String keyStore, String keyStorePassword,
+            String trustStore, String trustStorePassword) throws GeneralSecurityException, IOException {
+        KeyManager[] keyManagers = null;
+        TrustManager[] trustManagers = new TrustManager[] { new TrustEverythingTrustManager() };
+
+        if (StringUtils.isNotBlank(keyStore)) {
+            KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            kmf.init(load(keyStore, keyStorePassword), toChars(keyStorePassword));
+            keyManagers = kmf.getKeyManagers();
+        }
+
+        if (StringUtils.isNotBlank(trustStore)) {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(load(trustStore, trustStorePassword));
+            trustManagers = tmf.getTrustManagers();
+        }
+
+        SSLContext context = SSLContext.getInstance(protocol);
+        context.init(keyManagers, trustManagers, null);
+
+        SSLSessionContext sessions = context.getClientSessionContext();
+        sessions.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+        sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+
+        return context;
+    }
+
+    private static KeyStore load(String path, String password) throws GeneralSecurityException, IOException {
+        String lower = path.toLowerCase(Locale.ROOT);
+        // Java 8 defaults to JKS, which cannot read PKCS #12 stores
+        String type = lower.endsWith(".p12") || lower.endsWith(".pfx") ? "PKCS12" : KeyStore.getDefaultType();
+        KeyStore store = KeyStore.getInstance(type);
+
+        try (InputStream in = Files.newInputStream(Paths.get(path.trim()))) {
+            store.load(in, toChars(password));
+        }
+
+        return store;
+    }
+
+    private static String[] split(String values) {
+        if (StringUtils.isBlank(values)) {
+            return null;
+        }
+
+        List<String> list = new ArrayList<>();
+
+        for (String value : values.split(",")) {
+            if (!value.trim().isEmpty()) {
+                list.add(value.trim());
+            }
+        }
+
+        return list.toArray(new String[0]);
+    }
+
+    private static char[] toChars(String password) {
+        return password != null ? password.toCharArray() : null;
+    }
+
+    private static String passwordHash(String password) {
+        return Integer.toHexString(StringUtils.defaultString(password).hashCode());
+    }
+}
@@ -0,0 +1,77 @@
+package com.zeroclue.jmeter.protocol.amqp;
+
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JVM-wide registry of the queues, exchanges and bindings declared during a test run.
+ *
+ * <p>Each distinct declaration is run by the first thread only, concurrent threads wait for it
+ * to complete, so the topology exists before any of them publishes or consumes. Later threads
+ * skip the declaration round-trips altogether. A failed declaration is not registered,
+ * so the next thread tries again. The registry is cleared when a test starts.
+ */
+final class TopologyRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(TopologyRegistry.class);
+
+    private static final TopologyRegistry INSTANCE = new TopologyRegistry();
+
+    private final ConcurrentMap<String, Entry> declarations = new ConcurrentHashMap<>();
+
+    private TopologyRegistry() {
+    }
+
+    static TopologyRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    @FunctionalInterface
+    interface Declaration {
+        void declare() throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException;
+    }
+
+    /**
+     * Run the declaration, unless an equal one has already been run during this test.
+     *
+     * @param key identifies the declaration, including the broker and all declared attributes
+     * @param declaration declares the queue, exchange or binding
+     * @return true if the declaration was run, false if it was skipped
+     */
+    boolean declareOnce(String key, Declaration declaration)
+            throws IOException, NoSuchAlgorithmException, KeyManagementException, TimeoutException {
+        Entry entry = declarations.computeIfAbsent(key, k -> new Entry());
+
+        // only threads declaring the same entity wait on each other
+        synchronized (entry) {
+            if (entry.declared) {
+                return false;
+            }
+
+            declaration.declare();
+            entry.declared = true;
+        }
+
+        log.debug("Declared {}", key);
+
+        return true;
+    }
+
+    /**
+     * Forget all declarations, so they are run again by the next test.
+     */
+    void clear() {
+        declarations.clear();
+    }
+
+    private static final class Entry {
+        private boolean declared;
+    }
+}
@@ -7,6 +7,7 @@ import javax.swing.JPanel;
 
 import org.apache.jmeter.gui.util.HorizontalPanel;
 import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.gui.JLabeledChoice;
 import org.apache.jorphan.gui.JLabeledTextField;
 
 /**
@@ -18,11 +19,20 @@ public class AMQPConsumerGui extends AMQPSamplerGui {
 
     private final JLabeledTextField receiveTimeout = new JLabeledTextField("Receive Timeout");
     private final JLabeledTextField prefetchCount = new JLabeledTextField("   Prefetch Count");
+    private final JLabeledTextField ackBatchSize = new JLabeledTextField("   Ack Batch Size");
+    private final JLabeledTextField ackBatchTimeout = new JLabeledTextField("Ack Batch Timeout");
+    private final JLabeledTextField drainTime = new JLabeledTextField("       Drain Time");
+    private final JLabeledTextField drainMaxCount = new JLabeledTextField("  Drain Max Count");
+
+    private final JLabeledChoice responseMode = new JLabeledChoice("Response Mode", AMQPConsumer.RESPONSE_MODES, false, false);
+    private final JLabeledTextField responseMaxBytes = new JLabeledTextField("Max Bytes");
 
     private final JCheckBox purgeQueue = new JCheckBox("Purge Queue", AMQPConsumer.DEFAULT_PURGE_QUEUE);
     private final JCheckBox autoAck = new JCheckBox("Auto ACK", AMQPConsumer.DEFAULT_AUTO_ACK);
     private final JCheckBox readResponse = new JCheckBox("Read Response", AMQPConsumer.DEFAULT_READ_RESPONSE);
     private final JCheckBox useTx = new JCheckBox("Use Transactions", AMQPConsumer.DEFAULT_USE_TX);
+    private final JCheckBox measureLatency = new JCheckBox("Measure E2E Latency", AMQPConsumer.DEFAULT_MEASURE_LATENCY);
+    private final JCheckBox pullMode = new JCheckBox("Pull Mode", AMQPConsumer.DEFAULT_PULL_MODE);
 
     private JPanel mainPanel;
 
@@ -55,11 +65,22 @@ public class AMQPConsumerGui extends AMQPSamplerGui {
         optionsPanel.add(autoAck);
         optionsPanel.add(readResponse);
         optionsPanel.add(useTx);
+        optionsPanel.add(measureLatency);
+        optionsPanel.add(pullMode);
 
         mainPanel.add(receiveTimeout);
         mainPanel.add(prefetchCount);
+        mainPanel.add(ackBatchSize);
+        mainPanel.add(ackBatchTimeout);
+        mainPanel.add(drainTime);
+        mainPanel.add(drainMaxCount);
         mainPanel.add(optionsPanel);
 
+        JPanel responsePanel = new HorizontalPanel();
+        responsePanel.add(responseMode);
+        responsePanel.add(responseMaxBytes);
+        mainPanel.add(responsePanel);
+
         optionsPanel.setPreferredSize(optionsPanel.getPreferredSize());
         optionsPanel.validate();
     }
@@ -76,11 +97,19 @@ public class AMQPConsumerGui extends AMQPSamplerGui {
         AMQPConsumer sampler = (AMQPConsumer) element;
 
         readResponse.setSelected(sampler.getReadResponseAsBoolean());
+        responseMode.setText(sampler.getResponseMode());
+        responseMaxBytes.setText(sampler.getResponseMaxBytes());
         prefetchCount.setText(sampler.getPrefetchCount());
         receiveTimeout.setText(sampler.getReceiveTimeout());
+        ackBatchSize.setText(sampler.getAckBatchSize());
+        ackBatchTimeout.setText(sampler.getAckBatchTimeout());
+        drainTime.setText(sampler.getDrainTime());
+        drainMaxCount.setText(sampler.getDrainMaxCount());
         purgeQueue.setSelected(sampler.purgeQueue());
         autoAck.setSelected(sampler.autoAck());
         useTx.setSelected(sampler.getUseTx());
+        measureLatency.setSelected(sampler.getMeasureLatency());
+        pullMode.setSelected(sampler.getPullMode());
     }
 
     /**
@@ -90,8 +119,16 @@ public class AMQPConsumerGui extends AMQPSamplerGui {
     public void clearGui() {
         super.clearGui();
         readResponse.setSelected(AMQPConsumer.DEFAULT_READ_RESPONSE);
+        responseMode.setText(AMQPConsumer.DEFAULT_RESPONSE_MODE);
+        responseMaxBytes.setText(AMQPConsumer.DEFAULT_RESPONSE_MAX_BYTES_STRING);
         prefetchCount.setText(AMQPConsumer.DEFAULT_PREFETCH_COUNT_STRING);
+        ackBatchSize.setText(AMQPConsumer.DEFAULT_ACK_BATCH_SIZE_STRING);
+        ackBatchTimeout.setText(AMQPConsumer.DEFAULT_ACK_BATCH_TIMEOUT_STRING);
+        drainTime.setText(AMQPConsumer.DEFAULT_DRAIN_TIME_STRING);
+        drainMaxCount.setText(AMQPConsumer.DEFAULT_DRAIN_MAX_COUNT_STRING);
         useTx.setSelected(AMQPConsumer.DEFAULT_USE_TX);
+        measureLatency.setSelected(AMQPConsumer.DEFAULT_MEASURE_LATENCY);
+        pullMode.setSelected(AMQPConsumer.DEFAULT_PULL_MODE);
         receiveTimeout.setText(AMQPConsumer.DEFAULT_RECEIVE_TIMEOUT);
         purgeQueue.setSelected(AMQPConsumer.DEFAULT_PURGE_QUEUE);
         autoAck.setSelected(AMQPConsumer.DEFAULT_AUTO_ACK);
@@ -120,11 +157,19 @@ public class AMQPConsumerGui extends AMQPSamplerGui {
         super.modifyTestElement(sampler);
 
         sampler.setReadResponse(readResponse.isSelected());
+        sampler.setResponseMode(responseMode.getText());
+        sampler.setResponseMaxBytes(responseMaxBytes.getText());
         sampler.setPrefetchCount(prefetchCount.getText());
         sampler.setReceiveTimeout(receiveTimeout.getText());
+        sampler.setAckBatchSize(ackBatchSize.getText());
+        sampler.setAckBatchTimeout(ackBatchTimeout.getText());
+        sampler.setDrainTime(drainTime.getText());
+        sampler.setDrainMaxCount(drainMaxCount.getText());
         sampler.setPurgeQueue(purgeQueue.isSelected());
         sampler.setAutoAck(autoAck.isSelected());
         sampler.setUseTx(useTx.isSelected());
+        sampler.setMeasureLatency(measureLatency.isSelected());
+        sampler.setPullMode(pullMode.isSelected());
     }
 
     @Override
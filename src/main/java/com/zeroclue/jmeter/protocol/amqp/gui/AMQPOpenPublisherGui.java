@@ -0,0 +1,82 @@
+package com.zeroclue.jmeter.protocol.amqp.gui;
+
+import com.zeroclue.jmeter.protocol.amqp.AMQPOpenPublisher;
+
+import javax.swing.JPanel;
+
+import org.apache.jmeter.gui.util.HorizontalPanel;
+import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.gui.JLabeledTextField;
+
+/**
+ * GUI for AMQP Open Model Publisher.
+ */
+public class AMQPOpenPublisherGui extends AMQPPublisherGui {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JLabeledTextField workers = new JLabeledTextField("Worker Channels");
+    private final JLabeledTextField reportInterval = new JLabeledTextField("Report Interval (ms)");
+
+    public AMQPOpenPublisherGui() {
+        super();
+
+        JPanel openModelPanel = new HorizontalPanel();
+        openModelPanel.add(workers);
+        openModelPanel.add(reportInterval);
+        getMainPanel().add(openModelPanel);
+    }
+
+    @Override
+    public String getStaticLabel() {
+        return "AMQP Open Model Publisher";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void configure(TestElement element) {
+        super.configure(element);
+        if (!(element instanceof AMQPOpenPublisher)) {
+            return;
+        }
+        AMQPOpenPublisher sampler = (AMQPOpenPublisher) element;
+
+        workers.setText(sampler.getWorkers());
+        reportInterval.setText(sampler.getReportInterval());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public TestElement createTestElement() {
+        AMQPOpenPublisher sampler = new AMQPOpenPublisher();
+        modifyTestElement(sampler);
+
+        return sampler;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void modifyTestElement(TestElement te) {
+        super.modifyTestElement(te);
+
+        AMQPOpenPublisher sampler = (AMQPOpenPublisher) te;
+        sampler.setWorkers(workers.getText());
+        sampler.setReportInterval(reportInterval.getText());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void clearGui() {
+        super.clearGui();
+        workers.setText(AMQPOpenPublisher.DEFAULT_WORKERS_STRING);
+        reportInterval.setText(AMQPOpenPublisher.DEFAULT_REPORT_INTERVAL_STRING);
+    }
+}
@@ -13,6 +13,7 @@ import org.apache.jmeter.config.Arguments;
 import org.apache.jmeter.config.gui.ArgumentsPanel;
 import org.apache.jmeter.gui.util.HorizontalPanel;
 import org.apache.jmeter.testelement.TestElement;
+import org.apache.jorphan.gui.JLabeledChoice;
 import org.apache.jorphan.gui.JLabeledTextArea;
 import org.apache.jorphan.gui.JLabeledTextField;
 
@@ -24,6 +25,10 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
     private static final long serialVersionUID = 1L;
 
     private final JLabeledTextArea message = new JLabeledTextArea("Message Content");
+    private final JLabeledChoice payloadSource = new JLabeledChoice("Payload Source", AMQPPublisher.PAYLOAD_SOURCES, false, false);
+    private final JLabeledTextField payloadFile = new JLabeledTextField("Payload File or Directory");
+    private final JLabeledTextField payloadSizes = new JLabeledTextField("Payload Sizes");
+    private final JLabeledChoice payloadFill = new JLabeledChoice("Fill", AMQPPublisher.PAYLOAD_FILLS, false, false);
     private final JLabeledTextField messageRoutingKey = new JLabeledTextField("          Routing Key");
     private final JLabeledTextField messageType = new JLabeledTextField("     Message Type");
     private final JLabeledTextField replyToQueue = new JLabeledTextField("   Reply-To Queue");
@@ -36,6 +41,17 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
 
     private final JCheckBox persistent = new JCheckBox("Persistent", AMQPPublisher.DEFAULT_PERSISTENT);
     private final JCheckBox useTx = new JCheckBox("Use Transactions", AMQPPublisher.DEFAULT_USE_TX);
+    private final JCheckBox timestampMessages = new JCheckBox("Timestamp Messages", AMQPPublisher.DEFAULT_TIMESTAMP_MESSAGES);
+    private final JCheckBox mandatory = new JCheckBox("Mandatory", AMQPPublisher.DEFAULT_MANDATORY);
+    private final JCheckBox pauseWhileBlocked = new JCheckBox("Pause While Blocked", AMQPPublisher.DEFAULT_PAUSE_WHILE_BLOCKED);
+    private final JCheckBox publisherConfirms = new JCheckBox("Publisher Confirms", AMQPPublisher.DEFAULT_PUBLISHER_CONFIRMS);
+    private final JLabeledTextField confirmWindow = new JLabeledTextField("Confirm Window");
+
+    private final JLabeledChoice rateProfile = new JLabeledChoice("Rate Profile", AMQPPublisher.RATE_PROFILES, false, false);
+    private final JLabeledTextField rate = new JLabeledTextField("Rate (msg/s)");
+    private final JLabeledTextField peakRate = new JLabeledTextField("Peak Rate (msg/s)");
+    private final JLabeledTextField ratePeriod = new JLabeledTextField("Period (s)");
+    private final JLabeledTextField burstTime = new JLabeledTextField("Burst Time (s)");
 
     private final ArgumentsPanel headers = new ArgumentsPanel("Headers");
 
@@ -74,6 +90,16 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
 
         persistent.setSelected(sampler.getPersistent());
         useTx.setSelected(sampler.getUseTx());
+        publisherConfirms.setSelected(sampler.getPublisherConfirms());
+        timestampMessages.setSelected(sampler.getTimestampMessages());
+        pauseWhileBlocked.setSelected(sampler.getPauseWhileBlocked());
+        mandatory.setSelected(sampler.getMandatory());
+        confirmWindow.setText(sampler.getConfirmWindow());
+        rateProfile.setText(sampler.getRateProfile());
+        rate.setText(sampler.getRate());
+        peakRate.setText(sampler.getPeakRate());
+        ratePeriod.setText(sampler.getRatePeriod());
+        burstTime.setText(sampler.getBurstTime());
 
         messageRoutingKey.setText(sampler.getMessageRoutingKey());
         messageType.setText(sampler.getMessageType());
@@ -84,6 +110,10 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
         messagePriority.setText(sampler.getMessagePriority());
         messageId.setText(sampler.getMessageId());
         message.setText(sampler.getMessage());
+        payloadSource.setText(sampler.getPayloadSource());
+        payloadFile.setText(sampler.getPayloadFile());
+        payloadSizes.setText(sampler.getPayloadSizes());
+        payloadFill.setText(sampler.getPayloadFill());
         appId.setText(sampler.getAppId());
 
         configureHeaders(sampler);
@@ -113,9 +143,23 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
 
         sampler.setPersistent(persistent.isSelected());
         sampler.setUseTx(useTx.isSelected());
+        sampler.setPublisherConfirms(publisherConfirms.isSelected());
+        sampler.setTimestampMessages(timestampMessages.isSelected());
+        sampler.setPauseWhileBlocked(pauseWhileBlocked.isSelected());
+        sampler.setMandatory(mandatory.isSelected());
+        sampler.setConfirmWindow(confirmWindow.getText());
+        sampler.setRateProfile(rateProfile.getText());
+        sampler.setRate(rate.getText());
+        sampler.setPeakRate(peakRate.getText());
+        sampler.setRatePeriod(ratePeriod.getText());
+        sampler.setBurstTime(burstTime.getText());
 
         sampler.setMessageRoutingKey(messageRoutingKey.getText());
         sampler.setMessage(message.getText());
+        sampler.setPayloadSource(payloadSource.getText());
+        sampler.setPayloadFile(payloadFile.getText());
+        sampler.setPayloadSizes(payloadSizes.getText());
+        sampler.setPayloadFill(payloadFill.getText());
         sampler.setMessageType(messageType.getText());
         sampler.setReplyToQueue(replyToQueue.getText());
         sampler.setCorrelationId(correlationId.getText());
@@ -133,6 +177,10 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
         mainPanel = panel;
     }
 
+    protected JPanel getMainPanel() {
+        return mainPanel;
+    }
+
     /*
      * Helper method to set up the GUI screen
      */
@@ -158,9 +206,29 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
         JPanel optionsPanel = new HorizontalPanel();
         optionsPanel.add(persistent);
         optionsPanel.add(useTx);
+        optionsPanel.add(publisherConfirms);
+        optionsPanel.add(confirmWindow);
+        optionsPanel.add(timestampMessages);
+        optionsPanel.add(pauseWhileBlocked);
+        optionsPanel.add(mandatory);
         messagePanel.add(optionsPanel, constraints);
 
+        JPanel ratePanel = new HorizontalPanel();
+        ratePanel.add(rateProfile);
+        ratePanel.add(rate);
+        ratePanel.add(peakRate);
+        ratePanel.add(ratePeriod);
+        ratePanel.add(burstTime);
+        messagePanel.add(ratePanel, constraints);
+
         messagePanel.add(initMessagePropertyPanel(), constraints);
+        JPanel payloadPanel = new HorizontalPanel();
+        payloadPanel.add(payloadSource);
+        payloadPanel.add(payloadFile);
+        payloadPanel.add(payloadSizes);
+        payloadPanel.add(payloadFill);
+        messagePanel.add(payloadPanel, constraints);
+
         message.setPreferredSize(new Dimension(400, 200));
         messagePanel.add(message, constraints);
         messagePanel.add(headers, constraints);
@@ -201,6 +269,16 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
         super.clearGui();
         persistent.setSelected(AMQPPublisher.DEFAULT_PERSISTENT);
         useTx.setSelected(AMQPPublisher.DEFAULT_USE_TX);
+        publisherConfirms.setSelected(AMQPPublisher.DEFAULT_PUBLISHER_CONFIRMS);
+        timestampMessages.setSelected(AMQPPublisher.DEFAULT_TIMESTAMP_MESSAGES);
+        pauseWhileBlocked.setSelected(AMQPPublisher.DEFAULT_PAUSE_WHILE_BLOCKED);
+        mandatory.setSelected(AMQPPublisher.DEFAULT_MANDATORY);
+        confirmWindow.setText(AMQPPublisher.DEFAULT_CONFIRM_WINDOW_STRING);
+        rateProfile.setText(AMQPPublisher.DEFAULT_RATE_PROFILE);
+        rate.setText(AMQPPublisher.DEFAULT_RATE_STRING);
+        peakRate.setText(AMQPPublisher.DEFAULT_PEAK_RATE_STRING);
+        ratePeriod.setText(AMQPPublisher.DEFAULT_RATE_PERIOD_STRING);
+        burstTime.setText(AMQPPublisher.DEFAULT_BURST_TIME_STRING);
         messageRoutingKey.setText("");
         messageType.setText("");
         replyToQueue.setText("");
@@ -210,6 +288,10 @@ public class AMQPPublisherGui extends AMQPSamplerGui {
         contentEncoding.setText(AMQPPublisher.DEFAULT_ENCODING);
         messageId.setText("");
         message.setText("");
+        payloadSource.setText(AMQPPublisher.DEFAULT_PAYLOAD_SOURCE);
+        payloadFile.setText("");
+        payloadSizes.setText(AMQPPublisher.DEFAULT_PAYLOAD_SIZES);
+        payloadFill.setText(AMQPPublisher.DEFAULT_PAYLOAD_FILL);
         appId.setText("");
         headers.clearGui();
     }
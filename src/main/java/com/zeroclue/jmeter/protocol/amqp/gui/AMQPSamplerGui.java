@@ -11,6 +11,7 @@ import javax.swing.BoxLayout;
 import javax.swing.JCheckBox;
 import javax.swing.JPanel;
 
+import org.apache.jmeter.gui.util.HorizontalPanel;
 import org.apache.jmeter.gui.util.VerticalPanel;
 import org.apache.jmeter.samplers.gui.AbstractSamplerGui;
 import org.apache.jmeter.testelement.TestElement;
@@ -40,6 +41,7 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
     protected final JCheckBox queueRedeclare = new JCheckBox("Redeclare", AMQPSampler.DEFAULT_QUEUE_REDECLARE);
     protected final JCheckBox queueExclusive = new JCheckBox("Exclusive", AMQPSampler.DEFAULT_QUEUE_EXCLUSIVE);
     protected final JCheckBox queueAutoDelete = new JCheckBox("Auto Delete", AMQPSampler.DEFAULT_QUEUE_AUTO_DELETE);
+    protected final JCheckBox declareOnce = new JCheckBox("Declare Once", AMQPSampler.DEFAULT_DECLARE_ONCE);
 
     protected JLabeledTextField virtualHost = new JLabeledTextField("Virtual Host");
     protected JLabeledTextField host = new JLabeledTextField("             Host");
@@ -48,9 +50,29 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
     protected JLabeledTextField username = new JLabeledTextField("   Username");
     protected JLabeledTextField password = new JLabeledTextField("   Password");
     protected JLabeledTextField heartbeat = new JLabeledTextField("  Heartbeat");
+    protected JLabeledTextField sharedConnections = new JLabeledTextField("Shared Connections");
+    protected JLabeledChoice hostDistribution = new JLabeledChoice("Host Distribution", AMQPSampler.HOST_DISTRIBUTIONS, false, false);
+    protected JLabeledTextField hostWeights = new JLabeledTextField("Host Weights");
     private final JCheckBox ssl = new JCheckBox("SSL", AMQPSampler.DEFAULT_SSL_STATE);
+    protected JLabeledTextField sslProtocols = new JLabeledTextField("TLS Versions");
+    protected JLabeledTextField sslCipherSuites = new JLabeledTextField("Cipher Suites");
+    protected JLabeledTextField sslKeyStore = new JLabeledTextField("Key Store");
+    protected JLabeledTextField sslKeyStorePassword = new JLabeledTextField("Key Store Password");
+    protected JLabeledTextField sslTrustStore = new JLabeledTextField("Trust Store");
+    protected JLabeledTextField sslTrustStorePassword = new JLabeledTextField("Trust Store Password");
+    private final JCheckBox useNio = new JCheckBox("NIO", AMQPSampler.DEFAULT_USE_NIO);
+    protected JLabeledTextField nioThreads = new JLabeledTextField("NIO Threads");
+    protected JLabeledTextField nioReadBufferSize = new JLabeledTextField("NIO Read Buffer");
+    protected JLabeledTextField nioWriteBufferSize = new JLabeledTextField("NIO Write Buffer");
+    protected JLabeledTextField dispatchThreads = new JLabeledTextField("Dispatch Threads");
+    private final JCheckBox virtualThreads = new JCheckBox("Virtual Threads", AMQPSampler.DEFAULT_VIRTUAL_THREADS);
+    private final JCheckBox automaticRecovery = new JCheckBox("Automatic Recovery", AMQPSampler.DEFAULT_AUTOMATIC_RECOVERY);
+    protected JLabeledTextField recoveryInterval = new JLabeledTextField("Recovery Interval");
+    private final JCheckBox eagerConnect = new JCheckBox("Eager Connect", AMQPSampler.DEFAULT_EAGER_CONNECT);
+    protected JLabeledTextField connectParallelism = new JLabeledTextField("Connect Parallelism");
 
     protected final JLabeledTextField iterations = new JLabeledTextField("Number of Samples to Aggregate");
+    private final JCheckBox latencyPercentiles = new JCheckBox("Latency Percentiles", AMQPSampler.DEFAULT_LATENCY_PERCENTILES);
 
     private static final String EXCHANGE_SETTINGS_LABEL = "Exchange";
     private static final String QUEUE_SETTINGS_LABEL = "Queue";
@@ -85,6 +107,7 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
         queueRedeclare.setSelected(sampler.getQueueRedeclare());
         queueAutoDelete.setSelected(sampler.queueAutoDelete());
         queueExclusive.setSelected(sampler.queueExclusive());
+        declareOnce.setSelected(sampler.getDeclareOnce());
 
         virtualHost.setText(sampler.getVirtualHost());
         host.setText(sampler.getHost());
@@ -93,9 +116,29 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
         password.setText(sampler.getPassword());
         timeout.setText(sampler.getTimeout());
         heartbeat.setText(sampler.getHeartbeat());
+        sharedConnections.setText(sampler.getSharedConnections());
+        hostDistribution.setText(sampler.getHostDistribution());
+        hostWeights.setText(sampler.getHostWeights());
+        eagerConnect.setSelected(sampler.getEagerConnect());
+        connectParallelism.setText(sampler.getConnectParallelism());
         ssl.setSelected(sampler.getConnectionSSL());
+        sslProtocols.setText(sampler.getSslProtocols());
+        sslCipherSuites.setText(sampler.getSslCipherSuites());
+        sslKeyStore.setText(sampler.getSslKeyStore());
+        sslKeyStorePassword.setText(sampler.getSslKeyStorePassword());
+        sslTrustStore.setText(sampler.getSslTrustStore());
+        sslTrustStorePassword.setText(sampler.getSslTrustStorePassword());
+        useNio.setSelected(sampler.getUseNio());
+        nioThreads.setText(sampler.getNioThreads());
+        nioReadBufferSize.setText(sampler.getNioReadBufferSize());
+        nioWriteBufferSize.setText(sampler.getNioWriteBufferSize());
+        dispatchThreads.setText(sampler.getDispatchThreads());
+        virtualThreads.setSelected(sampler.getVirtualThreads());
+        automaticRecovery.setSelected(sampler.getAutomaticRecovery());
+        recoveryInterval.setText(sampler.getRecoveryInterval());
 
         iterations.setText(sampler.getIterations());
+        latencyPercentiles.setSelected(sampler.getLatencyPercentiles());
 
         log.debug("AMQPSamplerGui.configure() called");
     }
@@ -121,6 +164,7 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
         queueRedeclare.setSelected(AMQPSampler.DEFAULT_QUEUE_REDECLARE);
         queueAutoDelete.setSelected(AMQPSampler.DEFAULT_QUEUE_AUTO_DELETE);
         queueExclusive.setSelected(AMQPSampler.DEFAULT_QUEUE_EXCLUSIVE);
+        declareOnce.setSelected(AMQPSampler.DEFAULT_DECLARE_ONCE);
 
         virtualHost.setText(AMQPSampler.DEFAULT_VIRTUAL_HOST);
         host.setText(AMQPSampler.DEFAULT_HOSTNAME);
@@ -129,9 +173,29 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
         password.setText(AMQPSampler.DEFAULT_PASSWORD);
         timeout.setText(AMQPSampler.DEFAULT_TIMEOUT_STRING);
         heartbeat.setText(AMQPSampler.DEFAULT_HEARTBEAT_STRING);
+        sharedConnections.setText(AMQPSampler.DEFAULT_SHARED_CONNECTIONS_STRING);
+        hostDistribution.setText(AMQPSampler.DEFAULT_HOST_DISTRIBUTION);
+        hostWeights.setText(AMQPSampler.DEFAULT_HOST_WEIGHTS);
+        eagerConnect.setSelected(AMQPSampler.DEFAULT_EAGER_CONNECT);
+        connectParallelism.setText(AMQPSampler.DEFAULT_CONNECT_PARALLELISM_STRING);
         ssl.setSelected(AMQPSampler.DEFAULT_SSL_STATE);
+        sslProtocols.setText(AMQPSampler.DEFAULT_SSL_PROTOCOLS);
+        sslCipherSuites.setText(AMQPSampler.DEFAULT_SSL_CIPHER_SUITES);
+        sslKeyStore.setText(AMQPSampler.DEFAULT_SSL_KEY_STORE);
+        sslKeyStorePassword.setText("");
+        sslTrustStore.setText(AMQPSampler.DEFAULT_SSL_TRUST_STORE);
+        sslTrustStorePassword.setText("");
+        useNio.setSelected(AMQPSampler.DEFAULT_USE_NIO);
+        nioThreads.setText(AMQPSampler.DEFAULT_NIO_THREADS_STRING);
+        nioReadBufferSize.setText(AMQPSampler.DEFAULT_NIO_BUFFER_SIZE_STRING);
+        nioWriteBufferSize.setText(AMQPSampler.DEFAULT_NIO_BUFFER_SIZE_STRING);
+        dispatchThreads.setText(AMQPSampler.DEFAULT_DISPATCH_THREADS_STRING);
+        virtualThreads.setSelected(AMQPSampler.DEFAULT_VIRTUAL_THREADS);
+        automaticRecovery.setSelected(AMQPSampler.DEFAULT_AUTOMATIC_RECOVERY);
+        recoveryInterval.setText(AMQPSampler.DEFAULT_RECOVERY_INTERVAL_STRING);
 
         iterations.setText(AMQPSampler.DEFAULT_ITERATIONS_STRING);
+        latencyPercentiles.setSelected(AMQPSampler.DEFAULT_LATENCY_PERCENTILES);
     }
 
     /**
@@ -159,6 +223,7 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
         sampler.setQueueRedeclare(queueRedeclare.isSelected());
         sampler.setQueueAutoDelete(queueAutoDelete.isSelected());
         sampler.setQueueExclusive(queueExclusive.isSelected());
+        sampler.setDeclareOnce(declareOnce.isSelected());
 
         sampler.setVirtualHost(virtualHost.getText());
         sampler.setHost(host.getText());
@@ -167,9 +232,29 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
         sampler.setPassword(password.getText());
         sampler.setTimeout(timeout.getText());
         sampler.setHeartbeat(heartbeat.getText());
+        sampler.setSharedConnections(sharedConnections.getText());
+        sampler.setHostDistribution(hostDistribution.getText());
+        sampler.setHostWeights(hostWeights.getText());
+        sampler.setEagerConnect(eagerConnect.isSelected());
+        sampler.setConnectParallelism(connectParallelism.getText());
         sampler.setConnectionSSL(ssl.isSelected());
+        sampler.setSslProtocols(sslProtocols.getText());
+        sampler.setSslCipherSuites(sslCipherSuites.getText());
+        sampler.setSslKeyStore(sslKeyStore.getText());
+        sampler.setSslKeyStorePassword(sslKeyStorePassword.getText());
+        sampler.setSslTrustStore(sslTrustStore.getText());
+        sampler.setSslTrustStorePassword(sslTrustStorePassword.getText());
+        sampler.setUseNio(useNio.isSelected());
+        sampler.setNioThreads(nioThreads.getText());
+        sampler.setNioReadBufferSize(nioReadBufferSize.getText());
+        sampler.setNioWriteBufferSize(nioWriteBufferSize.getText());
+        sampler.setDispatchThreads(dispatchThreads.getText());
+        sampler.setVirtualThreads(virtualThreads.isSelected());
+        sampler.setAutomaticRecovery(automaticRecovery.isSelected());
+        sampler.setRecoveryInterval(recoveryInterval.getText());
 
         sampler.setIterations(iterations.getText());
+        sampler.setLatencyPercentiles(latencyPercentiles.isSelected());
 
         log.debug("AMQPSamplerGui.modifyTestElement() called, set user/pass to {}/{} on sampler {}",
             username.getText(), password.getText(), sampler);
@@ -182,7 +267,11 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
 
         JPanel mainPanel = new VerticalPanel();
         mainPanel.add(makeCommonPanel());
-        mainPanel.add(iterations);
+
+        JPanel iterationsPanel = new HorizontalPanel();
+        iterationsPanel.add(iterations);
+        iterationsPanel.add(latencyPercentiles);
+        mainPanel.add(iterationsPanel);
 
         add(mainPanel);
         setMainPanel(mainPanel);
@@ -275,6 +364,10 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
         gridBagConstraints.gridy = 3;
         queueSettings.add(queueExclusive, gridBagConstraints);
 
+        gridBagConstraints.gridx = 1;
+        gridBagConstraints.gridy = 4;
+        queueSettings.add(declareOnce, gridBagConstraints);
+
         gridBagConstraintsCommon.gridx = 0;
         gridBagConstraintsCommon.gridy = 0;
 
@@ -299,27 +392,93 @@ public abstract class AMQPSamplerGui extends AbstractSamplerGui {
 
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 2;
-        serverSettings.add(port, gridBagConstraints);
+        serverSettings.add(hostDistribution, gridBagConstraints);
 
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 3;
-        serverSettings.add(username, gridBagConstraints);
+        serverSettings.add(hostWeights, gridBagConstraints);
 
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 4;
-        serverSettings.add(password, gridBagConstraints);
+        serverSettings.add(port, gridBagConstraints);
 
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 5;
-        serverSettings.add(timeout, gridBagConstraints);
+        serverSettings.add(username, gridBagConstraints);
 
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 6;
-        serverSettings.add(heartbeat, gridBagConstraints);
+        serverSettings.add(password, gridBagConstraints);
 
         gridBagConstraints.gridx = 0;
         gridBagConstraints.gridy = 7;
-        serverSettings.add(ssl, gridBagConstraints);
+        serverSettings.add(timeout, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 8;
+        serverSettings.add(heartbeat, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 9;
+        serverSettings.add(sharedConnections, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 10;
+        serverSettings.add(connectParallelism, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 11;
+        JPanel connectOptions = new HorizontalPanel();
+        connectOptions.add(ssl);
+        connectOptions.add(useNio);
+        connectOptions.add(eagerConnect);
+        connectOptions.add(virtualThreads);
+        connectOptions.add(automaticRecovery);
+        serverSettings.add(connectOptions, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 12;
+        serverSettings.add(sslProtocols, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 13;
+        serverSettings.add(sslCipherSuites, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 14;
+        serverSettings.add(sslKeyStore, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 15;
+        serverSettings.add(sslKeyStorePassword, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 16;
+        serverSettings.add(sslTrustStore, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 17;
+        serverSettings.add(sslTrustStorePassword, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 18;
+        serverSettings.add(nioThreads, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 19;
+        serverSettings.add(nioReadBufferSize, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 20;
+        serverSettings.add(nioWriteBufferSize, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 21;
+        serverSettings.add(dispatchThreads, gridBagConstraints);
+
+        gridBagConstraints.gridx = 0;
+        gridBagConstraints.gridy = 22;
+        serverSettings.add(recoveryInterval, gridBagConstraints);
 
         gridBagConstraintsCommon.gridx = 1;
         gridBagConstraintsCommon.gridy = 0;